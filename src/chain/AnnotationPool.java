@@ -0,0 +1,120 @@
+package chain;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import chain.element.Entry;
+
+/**
+ * Pool of worker threads used to annotate documents in parallel
+ * <p>
+ * All workers share one ChainBuilder. Every worker thread uses its own Preprocessor,
+ * and every document its own {@link DocumentContext}. Records are written by the submitting
+ * thread in submission order, so the buffer file does not depend on the number of threads
+ * @author David
+ *
+ */
+public class AnnotationPool {
+
+	/**
+	 * Worker threads
+	 */
+	private ExecutorService executor;
+	/**
+	 * Pending results in submission order
+	 */
+	private LinkedList<Future<Entry>> pending;
+	/**
+	 * Ids of pending documents in submission order
+	 */
+	private LinkedList<String> ids;
+	/**
+	 * Maximum number of pending documents
+	 */
+	private int maxPending;
+
+	/**
+	 * Constructor
+	 * @param threads number of worker threads
+	 */
+	public AnnotationPool (int threads) {
+		final AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread (Runnable r) {
+				Thread t = new Thread(r, "annotator-" + count.incrementAndGet());
+				// do not keep the program alive if the main thread fails
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		pending = new LinkedList<Future<Entry>>();
+		ids = new LinkedList<String>();
+		// keep every worker busy while bounding the number of texts held in memory
+		maxPending = threads * 2;
+	}
+
+	/**
+	 * Submits a text for annotation
+	 * <p>
+	 * Blocks while too many documents are pending
+	 * @param cb ChainBuilder extracting and writing the records
+	 * @param text text
+	 * @param id document id
+	 */
+	public void submit (final ChainBuilder cb, final String text, final String id) {
+		pending.add(executor.submit(new Callable<Entry>() {
+			@Override
+			public Entry call () {
+				return cb.extract(text, id);
+			}
+		}));
+		ids.add(id);
+		while (pending.size() > maxPending)
+			writeNext(cb);
+	}
+
+	/**
+	 * Waits for the oldest pending document and writes its record
+	 * @param cb ChainBuilder writing the records
+	 */
+	private void writeNext (ChainBuilder cb) {
+		Future<Entry> f = pending.removeFirst();
+		String id = ids.removeFirst();
+		try {
+			Entry record = f.get();
+			if (record != null)
+				cb.writeRecord(record);
+			System.err.println("Finished..." + id);
+		} catch (ExecutionException e) {
+			// catch out of memory exception thrown by Stanford Parser
+			if (!(e.getCause() instanceof OutOfMemoryError))
+				throw new RuntimeException(e.getCause());
+			System.err.println("Skipping text..." + id);
+			cb.writeError(id);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (IOException ioe) {
+			System.err.println("An exception occured:\n" + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Writes all pending documents and stops the worker threads
+	 * @param cb ChainBuilder writing the records
+	 */
+	public void shutdown (ChainBuilder cb) {
+		while (!pending.isEmpty())
+			writeNext(cb);
+		executor.shutdown();
+		cb.printTimingReport();
+	}
+}
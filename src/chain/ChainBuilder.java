@@ -1,17 +1,22 @@
 package chain;
 
 import io.NCWriter;
+import io.NytDocument;
+import io.NytDocumentReader;
 import io.Reader;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import preprocess.Preprocessor;
 
 import chain.element.Entry;
@@ -31,25 +36,25 @@ import edu.stanford.nlp.trees.semgraph.SemanticGraphEdge;
  */
 public class ChainBuilder {
 	/**
-	 * Lock
+	 * Lock guarding the output writer
 	 */
-	Lock lock;
+	private final Lock lock = new ReentrantLock();
 	/**
-	 * Preprocessor
+	 * Number of worker threads
 	 */
-	Preprocessor pp;
+	private int threads = 1;
 	/**
-	 * Typed dependency builder
+	 * Number of records that can be queued for writing when running with several threads
 	 */
-	private TypedDepBuilder tdl;
+	private final static int writeQueueCapacity = 1024;
 	/**
-	 * Coreference graph
+	 * Preprocessor of the current thread
 	 */
-	private Map<Integer, CorefChain> graph;
+	private ThreadLocal<Preprocessor> pp;
 	/**
-	 * Dependency parsed sentences
+	 * All Preprocessors created by this builder
 	 */
-	private List<SemanticGraph> sentences;
+	private List<Preprocessor> preprocessors;
 	/**
 	 * Grammatical relations used to extract roles
 	 */
@@ -74,10 +79,6 @@ public class ChainBuilder {
 			"s",
 			"s"
 	}; 
-	/**
-	 * Entities
-	 */
-	private Set<IndexedWord> entities;
 	/**
 	 * Output Writer
 	 */
@@ -94,23 +95,26 @@ public class ChainBuilder {
 		}
 		// initialize components
 		ncw = new NCWriter();
-		entities = new HashSet<IndexedWord>();
-		tdl = new TypedDepBuilder();
-		sentences = new ArrayList<SemanticGraph>();
-		graph = new HashMap<Integer, CorefChain>();
-		pp = new Preprocessor();
-		new ArrayList<Entry>();
+		preprocessors = Collections.synchronizedList(new ArrayList<Preprocessor>());
+		// one Preprocessor, and hence one loaded pipeline, per thread
+		pp = new ThreadLocal<Preprocessor>() {
+			@Override
+			protected Preprocessor initialValue () {
+				Preprocessor p = new Preprocessor();
+				preprocessors.add(p);
+				return p;
+			}
+		};
 	}
 
 	/**
-	 * Method for reinitializing main components
+	 * Prints startup and steady-state timings of all Preprocessors
 	 */
-	private void reinitialize () {
-		entities = new HashSet<IndexedWord>();
-		tdl = new TypedDepBuilder();
-		sentences = new ArrayList<SemanticGraph>();
-		graph = new HashMap<Integer, CorefChain>();
-		pp = new Preprocessor();
+	void printTimingReport () {
+		synchronized (preprocessors) {
+			for (Preprocessor p : preprocessors)
+				System.err.print(p.getTimingReport());
+		}
 	}
 
 	/**
@@ -135,9 +139,9 @@ public class ChainBuilder {
 	/**
 	 * Method for capturing semantic roles specified in the array <em>relations</em>
 	 * @param sg SemanticGraph
-	 * @param id document id
+	 * @param ctx document context
 	 */
-	public void capture (SemanticGraph sg, String id) {
+	public void capture (SemanticGraph sg, DocumentContext ctx) {
 		// for each relation
 		for (int i = 0; i < relations.length; i++) {
 			// find all edges
@@ -145,14 +149,14 @@ public class ChainBuilder {
 			// for each edge
 			for (SemanticGraphEdge sge : edges) {
 				// build relations
-				buildRelations(sge, types[i], id);
+				buildRelations(sge, types[i], ctx);
 			}
 		}
 		// extra for prepositions
 		for (GrammaticalRelation gr : EnglishGrammaticalRelations.getPreps()) {
 			List<SemanticGraphEdge> edges = sg.findAllRelns(gr);
 			for (SemanticGraphEdge sge : edges) {
-				buildRelations(sge, "p_"+gr.toString().split("_")[1], id);
+				buildRelations(sge, "p_"+gr.toString().split("_")[1], ctx);
 			}
 		}
 	}
@@ -161,16 +165,16 @@ public class ChainBuilder {
 	 * Builds relations from SemanticGraphEdge and type
 	 * @param sge SemanticGraphEdge
 	 * @param type type
-	 * @param id document id
+	 * @param ctx document context
 	 */
-	private void buildRelations (SemanticGraphEdge sge, String type, String id) {
+	private void buildRelations (SemanticGraphEdge sge, String type, DocumentContext ctx) {
 		// check if tag is verb
 		if (sge.getGovernor().tag().startsWith("V")) {
 			// ignore "be" and "do"
 			if (sge.getGovernor().lemma().equals("be")||sge.getGovernor().lemma().equals("do"))
 				return;
 			// build typed dependency with lemma, type and resolved coref and add to builder
-			tdl.add(new TypedDep(sge.getGovernor().lemma(), type, resolveCoref(sge.getTarget()), id));
+			ctx.getTypedDeps().add(new TypedDep(sge.getGovernor().lemma(), type, resolveCoref(sge.getTarget(), ctx), ctx.getId()));
 		}
 	}
 
@@ -179,43 +183,146 @@ public class ChainBuilder {
 	 * @param text text to process
 	 * @param id document id
 	 */
-	public synchronized void run (String text, String id) {
-		// run preprocessor
-		pp.process(text);
-		// grab graph
-		graph = cleanCorefGraph(pp.getCorefChains());
-		// grab sentences
-		sentences = pp.getSemanticGraphs();
-		// for each sentence, capture all roles
-		System.err.println("Capturing roles...");
-		for (SemanticGraph sg : sentences) {
-			capture(sg, id);
-		}
-		Set<NarrativeChain> ncl = new HashSet<NarrativeChain>();
-		System.err.println("Building chains...");
-		for (IndexedWord entity : entities) {
-			NarrativeChain nc = new NarrativeChain();
-			nc.buildChain(tdl.getList(), entity);
-			if (!nc.empty())
-				ncl.add(nc);
-		}
+	public void run (String text, String id) {
+		// extract chains
+		Entry record = extract(text, id);
 		// write to buffer file
 		try {
+			// do not write empty chain IDs
+			if (record != null)
+				writeRecord(record);
+		} catch (IOException ioe) {
+			System.err.println("An exception occured:\n" + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Extracts the narrative chains of a text
+	 * <p>
+	 * Returns the buffer file record of the text, or <b>null</b> if no
+	 * chain could be built. All document state is held in a {@link DocumentContext},
+	 * so this method can be called by several threads at once
+	 * @param text text to process
+	 * @param id document id
+	 * @return buffer file record with one event block per chain, or <b>null</b>
+	 */
+	Entry extract (String text, String id) {
+		Preprocessor p = pp.get();
+		try {
+			// run preprocessor
+			p.process(text);
+			// grab graph and sentences
+			DocumentContext ctx = new DocumentContext(id, cleanCorefGraph(p.getCorefChains()), p.getSemanticGraphs());
+			// for each sentence, capture all roles
+			System.err.println("Capturing roles...");
+			for (SemanticGraph sg : ctx.getSentences()) {
+				capture(sg, ctx);
+			}
+			// keep insertion order so that records are reproducible
+			Set<NarrativeChain> ncl = new LinkedHashSet<NarrativeChain>();
+			System.err.println("Building chains...");
+			for (IndexedWord entity : ctx.getEntities()) {
+				NarrativeChain nc = new NarrativeChain();
+				nc.buildChain(ctx.getTypedDeps().getList(), entity);
+				if (!nc.empty())
+					ncl.add(nc);
+			}
 			// do not write empty chain IDs
 			if (ncl.isEmpty())
-				return;
-			ncw.write(id);
-			ncw.write(";");
+				return null;
+			Entry record = new Entry(id);
 			for (NarrativeChain nc : ncl) {
-				ncw.write(nc.toLinearString() + "&!&");
+				record.addEvent(nc.toEventBlock());
 			}
-			ncw.write("\n");
-		} catch (IOException ioe) {
-			System.err.println("An exception occured:\n" + ioe.getMessage());
+			return record;
+		} finally {
+			// never carry state over to the next document
+			p.clear();
+			System.out.println("Reinitialize...");
+		}
+	}
+
+	/**
+	 * Writes a record to the buffer file
+	 * @param record record
+	 * @throws IOException
+	 */
+	void writeRecord (Entry record) throws IOException {
+		lock.lock();
+		try {
+			ncw.writeEntry(record);
+			// records are complete once written, even if the run is interrupted.
+			// Asynchronous writers are drained, so a document is on disk when it is reported as finished
+			ncw.flush();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes a document id to the error file
+	 * @param id document id
+	 */
+	void writeError (String id) {
+		lock.lock();
+		try {
+			ncw.writeError(id + "\n");
+			if (!ncw.isAsync())
+				ncw.flush();
+		} catch (IOException e) {
+			// ignore error
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the buffer and error files
+	 * @throws IOException
+	 */
+	public void close () throws IOException {
+		lock.lock();
+		try {
+			ncw.close();
+			if (ncw.isAsync())
+				System.err.println("Written " + ncw.getBytesWritten() + " bytes, peak queue depth " + ncw.getPeakQueueDepth());
+		} finally {
+			lock.unlock();
 		}
-		ncl.clear();
-		reinitialize();
-		System.out.println("Reinitialize...");
+	}
+
+	/**
+	 * Sets whether the buffer file is written in the binary format
+	 * <p>
+	 * Default value: false
+	 * @param binary flag
+	 */
+	public void setBinary (boolean binary) {
+		ncw.setBinary(binary);
+	}
+
+	/**
+	 * Sets the number of worker threads used to annotate documents
+	 * <p>
+	 * Default value: 1. With more than one thread, folders are processed
+	 * by an {@link AnnotationPool}
+	 * @param threads number of threads
+	 */
+	public void setThreads (int threads) {
+		this.threads = Math.max(1, threads);
+		// records of several workers are written by an I/O thread
+		ncw.setAsync(this.threads > 1 ? writeQueueCapacity : 0);
+	}
+
+	/**
+	 * Returns the files of a folder in name order
+	 * @param folder path to folder
+	 * @return sorted files
+	 */
+	private File[] listFiles (String folder) {
+		File[] files = new File(folder).listFiles();
+		Arrays.sort(files);
+		return files;
 	}
 
 	/**
@@ -229,36 +336,45 @@ public class ChainBuilder {
 	public void runNytFolder (String folder) throws IOException {
 		// initialize reader
 		Reader r = new Reader();
+		// initialize pool if needed
+		AnnotationPool pool = threads > 1 ? new AnnotationPool(threads) : null;
 		// process each file
-		for (File f : new File(folder).listFiles()) {
+		for (File f : listFiles(folder)) {
 			System.err.println("Opening file..." + f.getName());
-			// read all texts from file
-			List<String> texts = r.readNytFile(f);
-			// for each text
-			for (String text : texts) {
-				// retrieve id and text
-				String id = text.split(r.getSplit())[0];
-				String t = text.split(r.getSplit())[1];
-				// textual output
-				System.err.println("Reading text..." + id);
-				// catch out of memory exception thrown by Stanford Parser
-				try {
-					run(t,id);
-				} catch (OutOfMemoryError oome) {
+			// stream texts from file
+			NytDocumentReader documents = r.openNytFile(f);
+			try {
+				NytDocument d;
+				// for each text
+				while ((d = documents.next())!=null) {
+					// retrieve id and text
+					String id = d.getId();
+					String t = d.getText();
 					// textual output
-					System.err.println("Skipping text..." + id);
-					// write error file
+					System.err.println("Reading text..." + id);
+					// hand text over to pool
+					if (pool != null) {
+						pool.submit(this, t, id);
+						continue;
+					}
+					// catch out of memory exception thrown by Stanford Parser
 					try {
-						ncw.writeError(id + "\n");
-					} catch (IOException e) {
-						// ignore error
+						run(t,id);
+					} catch (OutOfMemoryError oome) {
+						// textual output
+						System.err.println("Skipping text..." + id);
+						// write error file
+						writeError(id);
+						// jump to next iteration
+						continue;
 					}
-					// jump to next iteration
-					continue;
+					System.err.println("Finished..." + id);			
 				}
-				System.err.println("Finished..." + id);			
+			} finally {
+				documents.close();
 			}
 		}
+		finish(pool);
 	}
 	
 	/**
@@ -270,8 +386,10 @@ public class ChainBuilder {
 	public void runFolder (String folder) {
 		// initialize reader
 		Reader r = new Reader();
+		// initialize pool if needed
+		AnnotationPool pool = threads > 1 ? new AnnotationPool(threads) : null;
 		// process each file
-		for (File f : new File(folder).listFiles()) {
+		for (File f : listFiles(folder)) {
 			// text buffer
 			String text = "";
 			// document id
@@ -283,6 +401,11 @@ public class ChainBuilder {
 			} catch (IOException e) {
 				// ignore error
 			}
+			// hand text over to pool
+			if (pool != null) {
+				pool.submit(this, text, id);
+				continue;
+			}
 			// catch OutOfMemoryException thrown by Stanford Parser
 			try {
 				run(text,id);
@@ -290,24 +413,35 @@ public class ChainBuilder {
 				// textual output
 				System.err.println("Skipping file..." + id);
 				// write error file
-				try {
-					ncw.writeError(id + "\n");
-				} catch (IOException e) {
-					// ignore error
-				}
+				writeError(id);
 				// jump to next iteration
 				continue;
 			}
 			System.err.println("Finished..." + id);			
 		}
+		finish(pool);
+	}
+
+	/**
+	 * Waits for all pending documents and prints timings
+	 * @param pool annotation pool or <b>null</b> for sequential processing
+	 */
+	private void finish (AnnotationPool pool) {
+		if (pool != null)
+			pool.shutdown(this);
+		else
+			printTimingReport();
 	}
 
 	/**
 	 * Resolves word to the most representative corefering mention if applicable
 	 * @param word word
+	 * @param ctx document context
 	 * @return most representative mention
 	 */
-	private IndexedWord resolveCoref (IndexedWord word) {
+	private IndexedWord resolveCoref (IndexedWord word, DocumentContext ctx) {
+		// coreference graph
+		Map<Integer, CorefChain> graph = ctx.getGraph();
 		// check each chain
 		for (int i : graph.keySet()) {
 			// grab the chain
@@ -317,8 +451,7 @@ public class ChainBuilder {
 				// if the word is equal to the most representative mention, return the word
 				if (a.getRepresentativeMention().mentionSpan.equals(word.word())) {
 					// add word to entities
-					if (!myContains(word))
-						entities.add(word);
+					ctx.addEntity(word);
 					return word;
 				}
 				// if the word is found in a chain, return the head word of the most representative mention of the word
@@ -328,12 +461,11 @@ public class ChainBuilder {
 					// fetch index of sentence -1 (because sentences indexed from 1, list from 0)
 					int sindex = a.getRepresentativeMention().sentNum-1;
 					// add word to entities
-					if (!myContains(word))
-						entities.add(word);
+					ctx.addEntity(word);
 					try {
-						return sentences.get(sindex).getNodeByIndex(index);
+						return ctx.getSentences().get(sindex).getNodeByIndex(index);
 					} catch (IllegalArgumentException e) {
-						System.out.println(sentences.get(sindex) + ";" + index);
+						System.out.println(ctx.getSentences().get(sindex) + ";" + index);
 					}
 				}
 			}
@@ -342,29 +474,6 @@ public class ChainBuilder {
 		return word;
 	}
 
-	/**
-	 * Private helper method for simple IndexedWord comparison
-	 * @param iw IndexedWord
-	 * @return whether the array <em>entities</em> contains an IndexedWord with the same text and tag
-	 */
-	private boolean myContains (IndexedWord iw) {
-		// get text
-		String word = iw.word();
-		// get tag
-		String pos = iw.tag();
-		// look through entities
-		for (IndexedWord iw2 : entities) {
-			// get text and tag
-			String w2 = iw2.word();
-			String pos2 = iw2.tag();
-			// if it exists in entities, return true
-			if (word.equals(w2) && pos.equals(pos2))
-				return true;
-		}
-		// else return false
-		return false;
-	}
-
 	/**
 	 * Returns the path to the buffer file
 	 * @return path to buffer file
@@ -388,4 +497,12 @@ public class ChainBuilder {
 	public void setErrorPath (String path) {
 		ncw.setErrorPath(path);
 	}
+
+	/**
+	 * Returns the path to the error file
+	 * @return path to error file
+	 */
+	public String getErrorPath () {
+		return ncw.getErrorPath();
+	}
 }
@@ -0,0 +1,381 @@
+package chain;
+
+import io.TextChainBufferReader;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import util.CountMinSketch;
+import util.ExternalCounter;
+import util.SymbolTable;
+
+import chain.element.Entry;
+import chain.element.Event;
+import chain.element.EventBlock;
+
+/**
+ * Class used to collect the entries, event counts and joint counts of a part of a chain buffer file
+ * <p>
+ * Shards of consecutive parts of a file can be read independently and merged in file order.
+ * A shard that does not keep its entries only needs memory for the vocabulary, joint counts
+ * beyond the memory budget of the shard are spilled to disk.
+ * A shard can also estimate event counts and joint counts with count-min sketches. Sketches are keyed
+ * by hashes of the typed dependencies instead of symbols, so they are merged by adding them
+ * @author David
+ *
+ */
+class CountShard {
+
+	/**
+	 * List of entries
+	 */
+	private List<Entry> entries;
+	/**
+	 * Typed dependencies
+	 */
+	private SymbolTable typedDeps;
+	/**
+	 * Event counts by typed dependency symbol
+	 */
+	private long[] counts;
+	/**
+	 * Absolute count
+	 */
+	private long absoluteCount;
+	/**
+	 * Number of records
+	 */
+	private long records;
+	/**
+	 * Number of coreferent event pairs by pair of typed dependency symbols
+	 */
+	private ExternalCounter jointCounts;
+	/**
+	 * Number of coreferent event pairs
+	 */
+	private long coreferentPairs;
+	/**
+	 * Sketches of the event counts and joint counts, null if counts are exact
+	 */
+	private CountMinSketch eventSketch, jointSketch;
+	/**
+	 * Sketch key of each typed dependency symbol and number of keys
+	 */
+	private long[] keys;
+	private int keyCount;
+	/**
+	 * Flag to indicate that entries are kept
+	 */
+	private boolean keepEntries;
+
+	/**
+	 * Constructor
+	 * @param keepEntries flag to indicate that entries are kept
+	 * @param memory memory budget for the joint counts in bytes
+	 */
+	CountShard (boolean keepEntries, long memory) {
+		this.keepEntries = keepEntries;
+		entries = new ArrayList<Entry>();
+		typedDeps = new SymbolTable();
+		counts = new long[1024];
+		jointCounts = new ExternalCounter(memory, null);
+	}
+
+	/**
+	 * Makes the shard estimate event counts and joint counts with count-min sketches
+	 * <p>
+	 * Has to be called before anything is added
+	 * @param width number of counters per row
+	 * @param depth number of rows
+	 * @param conservative flag to indicate conservative update
+	 */
+	void useSketches (int width, int depth, boolean conservative) {
+		eventSketch = new CountMinSketch(width, depth, conservative);
+		jointSketch = new CountMinSketch(width, depth, conservative);
+		keys = new long[1024];
+	}
+
+	/**
+	 * Deletes the spilled joint counts
+	 * <p>
+	 * Shards are closed when they are merged into another shard, or if reading fails
+	 */
+	void close () {
+		jointCounts.close();
+	}
+
+	/**
+	 * Parses a line of a chain buffer file in the text format
+	 * @param l line
+	 * @throws IOException if joint counts cannot be spilled
+	 */
+	void parseLine (String l) throws IOException {
+		add(TextChainBufferReader.parseEntry(l));
+	}
+
+	/**
+	 * Adds a record of a chain buffer file
+	 * @param e entry
+	 * @throws IOException if joint counts cannot be spilled
+	 */
+	void add (Entry e) throws IOException {
+		for (EventBlock eb : e.getEventBlock()) {
+			List<Event> events = eb.getEvents();
+			for (Event ev : events) {
+				int id = intern(ev.getTypedDep());
+				ev.setTypedDepId(id);
+				// populate counts
+				if (eventSketch != null)
+					eventSketch.add(keys[id], 1);
+				else
+					increaseCount(id, 1);
+				// increase absolute counter
+				absoluteCount++;
+			}
+			countJointOccurrences(events);
+		}
+		records++;
+		// add entry to entries
+		if (keepEntries)
+			entries.add(e);
+	}
+
+	/**
+	 * Adds the counts of a typed dependency of a stored shard
+	 * @param td typed dependency
+	 * @param count number of events
+	 * @return symbol id
+	 */
+	int addCount (String td, long count) {
+		int id = intern(td);
+		increaseCount(id, count);
+		return id;
+	}
+
+	/**
+	 * Adds the joint count of a pair of typed dependency symbols of a stored shard
+	 * @param key key of the pair as returned by {@link #jointKey(int, int)}
+	 * @param count number of coreferent event pairs
+	 * @throws IOException if joint counts cannot be spilled
+	 */
+	void addJointCount (long key, long count) throws IOException {
+		jointCounts.add(key, count);
+	}
+
+	/**
+	 * Adds the totals of a stored shard
+	 * @param records number of records
+	 * @param absolute absolute count
+	 * @param coreferent number of coreferent event pairs
+	 */
+	void addTotals (long records, long absolute, long coreferent) {
+		this.records += records;
+		absoluteCount += absolute;
+		coreferentPairs += coreferent;
+	}
+
+	/**
+	 * Counts the coreferent event pairs of an event block
+	 * <p>
+	 * All ordered pairs of distinct events with the same mention are counted,
+	 * once in total and once per pair of typed dependencies
+	 * @param events events of the block
+	 * @throws IOException if joint counts cannot be spilled
+	 */
+	private void countJointOccurrences (List<Event> events) throws IOException {
+		// double loop over ordered pairs
+		for (int i = 0; i < events.size(); i++) {
+			Event i_e1 = events.get(i);
+			for (int j = 0; j < events.size(); j++) {
+				// skip if i == j
+				if (i == j)
+					continue;
+				Event i_e2 = events.get(j);
+				// if inner event 1 coreferent with inner event 2
+				if (i_e1.getMention().equals(i_e2.getMention())) {
+					// counter up
+					coreferentPairs++;
+					if (jointSketch != null)
+						jointSketch.add(jointSketchKey(keys[i_e1.getTypedDepId()], keys[i_e2.getTypedDepId()]), 1);
+					else
+						jointCounts.add(jointKey(i_e1.getTypedDepId(), i_e2.getTypedDepId()), 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the key of a pair of typed dependency symbols in the joint count table
+	 * @param td1 first typed dependency symbol
+	 * @param td2 second typed dependency symbol
+	 * @return key
+	 */
+	static long jointKey (int td1, int td2) {
+		return ((long) td1 << 32) | td2;
+	}
+
+	/**
+	 * Returns the key of a pair of typed dependencies in the joint count sketch
+	 * @param k1 sketch key of the first typed dependency
+	 * @param k2 sketch key of the second typed dependency
+	 * @return key
+	 */
+	static long jointSketchKey (long k1, long k2) {
+		return k1 * 0x9E3779B97F4A7C15L + k2;
+	}
+
+	/**
+	 * Interns a typed dependency and assigns a sketch key to new symbols
+	 * @param td typed dependency
+	 * @return symbol id
+	 */
+	private int intern (String td) {
+		int id = typedDeps.intern(td);
+		if (keys != null && id == keyCount) {
+			if (keyCount == keys.length)
+				keys = Arrays.copyOf(keys, keyCount * 2);
+			keys[keyCount++] = CountMinSketch.hash(td);
+		}
+		return id;
+	}
+
+	/**
+	 * Appends the entries and adds the counts of the shard of the following part
+	 * <p>
+	 * The typed dependency symbols of the appended events are changed to the symbols of this shard.
+	 * The other shard is finished and its temporary files are deleted
+	 * @param other shard of the following part
+	 * @throws IOException if joint counts cannot be spilled
+	 */
+	void merge (CountShard other) throws IOException {
+		// map symbol ids of the other shard to ids of this shard
+		int[] ids = new int[other.typedDeps.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = intern(other.typedDeps.get(i));
+			// shards with sketches do not grow their exact counts
+			if (i < other.counts.length)
+				increaseCount(ids[i], other.counts[i]);
+		}
+		if (eventSketch != null) {
+			eventSketch.merge(other.eventSketch);
+			jointSketch.merge(other.jointSketch);
+		}
+		for (Entry e : other.entries) {
+			for (EventBlock eb : e.getEventBlock()) {
+				for (Event ev : eb.getEvents())
+					ev.setTypedDepId(ids[ev.getTypedDepId()]);
+			}
+		}
+		other.jointCounts.finish();
+		ExternalCounter.Cursor c = other.jointCounts.cursor();
+		while (c.next()) {
+			long key = c.key();
+			jointCounts.add(jointKey(ids[(int) (key >>> 32)], ids[(int) key]), c.value());
+		}
+		other.close();
+		entries.addAll(other.entries);
+		records += other.records;
+		absoluteCount += other.absoluteCount;
+		coreferentPairs += other.coreferentPairs;
+	}
+
+	/**
+	 * Helper method to increase a count
+	 * @param id typed dependency symbol
+	 * @param by increment
+	 */
+	private void increaseCount (int id, long by) {
+		if (id >= counts.length)
+			counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+		counts[id] += by;
+	}
+
+	/**
+	 * Returns the entries
+	 * @return entries, empty if entries are not kept
+	 */
+	List<Entry> getEntries () {
+		return entries;
+	}
+
+	/**
+	 * Returns the typed dependency symbols
+	 * @return symbol table
+	 */
+	SymbolTable getTypedDeps () {
+		return typedDeps;
+	}
+
+	/**
+	 * Returns the event counts by typed dependency symbol
+	 * <p>
+	 * The array may be longer than the number of symbols
+	 * @return event counts
+	 */
+	long[] getCounts () {
+		return counts;
+	}
+
+	/**
+	 * Returns the number of records
+	 * @return number of records
+	 */
+	long getRecords () {
+		return records;
+	}
+
+	/**
+	 * Returns the absolute count
+	 * @return absolute count
+	 */
+	long getAbsoluteCount () {
+		return absoluteCount;
+	}
+
+	/**
+	 * Returns the number of coreferent event pairs by pair of typed dependency symbols
+	 * <p>
+	 * The counter has to be finished before it is read
+	 * @return joint counts
+	 */
+	ExternalCounter getJointCounts () {
+		return jointCounts;
+	}
+
+	/**
+	 * Returns the sketch of the event counts
+	 * @return sketch, null if counts are exact
+	 */
+	CountMinSketch getEventSketch () {
+		return eventSketch;
+	}
+
+	/**
+	 * Returns the sketch of the joint counts
+	 * @return sketch, null if counts are exact
+	 */
+	CountMinSketch getJointSketch () {
+		return jointSketch;
+	}
+
+	/**
+	 * Returns the sketch keys by typed dependency symbol
+	 * <p>
+	 * The array may be longer than the number of symbols
+	 * @return sketch keys, null if counts are exact
+	 */
+	long[] getKeys () {
+		return keys;
+	}
+
+	/**
+	 * Returns the number of coreferent event pairs
+	 * @return number of coreferent event pairs
+	 */
+	long getCoreferentPairs () {
+		return coreferentPairs;
+	}
+}
@@ -0,0 +1,146 @@
+package chain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import util.ExternalCounter;
+import util.StageCache;
+import util.SymbolTable;
+
+/**
+ * Class used to persist the counts of a chain buffer file
+ * <p>
+ * The count file holds the number of counted records, the length of the chain buffer file when it was
+ * counted and a hash of its contents up to that length, the absolute count, the number of coreferent event pairs, the event count of every typed
+ * dependency and the joint counts. Records appended to the chain buffer file later can be counted on top
+ * of the stored counts
+ * @author David
+ *
+ */
+class CountStore {
+
+	/**
+	 * Magic number <em>NCCS</em>
+	 */
+	private final static int MAGIC = 0x4E434353;
+	/**
+	 * Format version
+	 */
+	private final static int VERSION = 2;
+	/**
+	 * Count file
+	 */
+	private File file;
+	/**
+	 * Number of counted records
+	 */
+	private long records;
+
+	/**
+	 * Constructor
+	 * @param file count file
+	 */
+	CountStore (File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the stored counts into an empty shard
+	 * <p>
+	 * Counts are only loaded if the counted part of the chain buffer file is unchanged, records may only
+	 * have been appended since. Count files of earlier versions are not used
+	 * @param shard empty shard
+	 * @param buffer chain buffer file
+	 * @return false if there are no usable counts
+	 * @throws IOException
+	 */
+	boolean load (CountShard shard, File buffer) throws IOException {
+		if (!file.exists())
+			return false;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file.getName() + " is not a count file");
+			if (in.readUnsignedByte() != VERSION)
+				return false;
+			long length = in.readLong();
+			long hash = in.readLong();
+			// the buffer file has been replaced or rewritten
+			if (buffer.length() < length || StageCache.hash(buffer, length) != hash)
+				return false;
+			records = in.readLong();
+			long absolute = in.readLong();
+			long coreferent = in.readLong();
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				// symbols are stored in order of their ids
+				if (shard.addCount(in.readUTF(), in.readLong()) != i)
+					throw new IOException("Corrupt count file, duplicate typed dependency");
+			}
+			long joint = in.readLong();
+			for (long i = 0; i < joint; i++)
+				shard.addJointCount(in.readLong(), in.readLong());
+			shard.addTotals(records, absolute, coreferent);
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Stores the counts of a shard
+	 * <p>
+	 * The count file is replaced at once, so it is never left half written
+	 * @param shard shard with finished joint counts
+	 * @param buffer counted chain buffer file
+	 * @param length length of the chain buffer file when it was counted
+	 * @throws IOException
+	 */
+	void save (CountShard shard, File buffer, long length) throws IOException {
+		long hash = StageCache.hash(buffer, length);
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(length);
+			out.writeLong(hash);
+			out.writeLong(shard.getRecords());
+			out.writeLong(shard.getAbsoluteCount());
+			out.writeLong(shard.getCoreferentPairs());
+			SymbolTable typedDeps = shard.getTypedDeps();
+			long[] counts = shard.getCounts();
+			out.writeInt(typedDeps.size());
+			for (int i = 0; i < typedDeps.size(); i++) {
+				out.writeUTF(typedDeps.get(i));
+				out.writeLong(i < counts.length ? counts[i] : 0);
+			}
+			ExternalCounter joint = shard.getJointCounts();
+			out.writeLong(joint.size());
+			ExternalCounter.Cursor c = joint.cursor();
+			while (c.next()) {
+				out.writeLong(c.key());
+				out.writeLong(c.value());
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Returns the number of records counted by the loaded counts
+	 * @return number of records
+	 */
+	long getRecords () {
+		return records;
+	}
+}
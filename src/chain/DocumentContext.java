@@ -0,0 +1,128 @@
+package chain;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.stanford.nlp.dcoref.CorefChain;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.trees.semgraph.SemanticGraph;
+
+/**
+ * Class holding the state of a single document during chain extraction
+ * <p>
+ * A new context is created for every document, so that several documents
+ * can be extracted at the same time by one ChainBuilder
+ * @author David
+ *
+ */
+public class DocumentContext {
+
+	/**
+	 * Document id
+	 */
+	private String id;
+	/**
+	 * Typed dependency builder
+	 */
+	private TypedDepBuilder tdl;
+	/**
+	 * Coreference graph
+	 */
+	private Map<Integer, CorefChain> graph;
+	/**
+	 * Dependency parsed sentences
+	 */
+	private List<SemanticGraph> sentences;
+	/**
+	 * Entities
+	 */
+	private Set<IndexedWord> entities;
+
+	/**
+	 * Constructor
+	 * @param id document id
+	 * @param graph coreference graph
+	 * @param sentences dependency parsed sentences
+	 */
+	public DocumentContext (String id, Map<Integer, CorefChain> graph, List<SemanticGraph> sentences) {
+		this.id = id;
+		this.graph = graph;
+		this.sentences = sentences;
+		tdl = new TypedDepBuilder();
+		entities = new HashSet<IndexedWord>();
+	}
+
+	/**
+	 * Returns the document id
+	 * @return document id
+	 */
+	public String getId () {
+		return id;
+	}
+
+	/**
+	 * Returns the typed dependency builder
+	 * @return typed dependency builder
+	 */
+	public TypedDepBuilder getTypedDeps () {
+		return tdl;
+	}
+
+	/**
+	 * Returns the coreference graph
+	 * @return coreference graph
+	 */
+	public Map<Integer, CorefChain> getGraph () {
+		return graph;
+	}
+
+	/**
+	 * Returns the dependency parsed sentences
+	 * @return sentences
+	 */
+	public List<SemanticGraph> getSentences () {
+		return sentences;
+	}
+
+	/**
+	 * Returns the entities of the document
+	 * @return entities
+	 */
+	public Set<IndexedWord> getEntities () {
+		return entities;
+	}
+
+	/**
+	 * Adds an entity unless an entity with the same text and tag is already known
+	 * @param iw IndexedWord
+	 */
+	public void addEntity (IndexedWord iw) {
+		if (!myContains(iw))
+			entities.add(iw);
+	}
+
+	/**
+	 * Private helper method for simple IndexedWord comparison
+	 * @param iw IndexedWord
+	 * @return whether the array <em>entities</em> contains an IndexedWord with the same text and tag
+	 */
+	private boolean myContains (IndexedWord iw) {
+		// get text
+		String word = iw.word();
+		// get tag
+		String pos = iw.tag();
+		// look through entities
+		for (IndexedWord iw2 : entities) {
+			// get text and tag
+			String w2 = iw2.word();
+			String pos2 = iw2.tag();
+			// if it exists in entities, return true
+			if (word.equals(w2) && pos.equals(pos2))
+				return true;
+		}
+		// else return false
+		return false;
+	}
+}
@@ -7,6 +7,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
+import chain.element.EventBlock;
 import chain.element.TypedDep;
 import edu.stanford.nlp.ling.IndexedWord;
 
@@ -106,6 +107,18 @@ public class NarrativeChain {
 		return chain.isEmpty();
 	}
 
+	/**
+	 * Returns this chain as event block, as it is read back from the buffer file
+	 * @return event block
+	 */
+	public EventBlock toEventBlock () {
+		EventBlock eb = new EventBlock();
+		for (TypedDep td : chain) {
+			eb.add(td.toEvent());
+		}
+		return eb;
+	}
+
 	/**
 	 * Alternative toString method
 	 * @return linear string representation
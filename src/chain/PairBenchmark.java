@@ -0,0 +1,97 @@
+package chain;
+
+import io.ChainBufferReader;
+import io.NCWriter;
+import io.Reader;
+
+import java.io.File;
+import java.io.IOException;
+
+import chain.element.Entry;
+
+/**
+ * Tool used to measure how pair generation scales with the number of documents
+ * <p>
+ * Copies the first n records of a chain buffer into a temporary text buffer, for every given n,
+ * and times the PairBuilder on each of them. Stops early when the chain buffer has fewer records
+ * @author David
+ *
+ */
+public class PairBenchmark {
+
+	/**
+	 * Default numbers of documents
+	 */
+	private final static int[] defaultSizes = {1000, 10000, 100000, 1000000};
+
+	/**
+	 * Times the PairBuilder on prefixes of a chain buffer
+	 * @param args chain buffer file, optionally numbers of documents
+	 */
+	public static void main (String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: PairBenchmark <buffer> [documents...]");
+			return;
+		}
+		try {
+			int[] sizes = defaultSizes;
+			if (args.length > 1) {
+				sizes = new int[args.length - 1];
+				for (int i = 1; i < args.length; i++)
+					sizes[i-1] = Integer.parseInt(args[i]);
+			}
+			for (int n : sizes) {
+				File buffer = File.createTempFile("bench", "_buffer");
+				File pairs = new File(buffer.getPath() + "_pairs");
+				buffer.deleteOnExit();
+				pairs.deleteOnExit();
+				int documents = copy(new File(args[0]), buffer, n);
+				PairBuilder pb = new PairBuilder();
+				pb.setPath(buffer.getPath());
+				pb.setPairPath(pairs.getPath());
+				long start = System.currentTimeMillis();
+				pb.generatePairs();
+				long time = System.currentTimeMillis() - start;
+				System.out.println(documents + " documents: " + time + " ms, " + (time * 1000000 / Math.max(1, documents)) / 1000.0
+						+ " ms per 1000 documents, pair buffer " + (pairs.length() >> 10) + " KB");
+				buffer.delete();
+				pairs.delete();
+				new File(buffer.getPath() + "_counts").delete();
+				if (documents < n)
+					break;
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("Numbers of documents have to be integers!");
+		} catch (IOException e) {
+			System.err.println("An exception occured:\n" + e.getMessage());
+		}
+	}
+
+	/**
+	 * Copies the first records of a chain buffer into a text buffer
+	 * @param from chain buffer file
+	 * @param to text buffer file
+	 * @param n number of records
+	 * @return number of copied records
+	 * @throws IOException
+	 */
+	private static int copy (File from, File to, int n) throws IOException {
+		// records are appended, start from an empty file
+		to.delete();
+		ChainBufferReader r = new Reader().openChainBuffer(from);
+		NCWriter w = new NCWriter();
+		w.setPath(to.getPath());
+		int i = 0;
+		try {
+			Entry e;
+			while (i < n && (e = r.next()) != null) {
+				w.writeEntry(e);
+				i++;
+			}
+		} finally {
+			r.close();
+			w.close();
+		}
+		return i;
+	}
+}
@@ -1,18 +1,39 @@
 package chain;
 
+import io.BinaryChainBufferReader;
+import io.ChainBufferReader;
+import io.MappedFile;
 import io.NCWriter;
+import io.Reader;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import util.CountMinSketch;
+import util.ExternalCounter;
+import util.LongLongMap;
+import util.SymbolTable;
 
 import chain.element.Entry;
 import chain.element.Event;
@@ -31,9 +52,13 @@ public class PairBuilder {
 	 */
 	private static String path;
 	/**
-	 * Map with event counts 
+	 * Typed dependency symbols of all events
+	 */
+	private SymbolTable typedDeps;
+	/**
+	 * Event counts by typed dependency symbol
 	 */
-	private Map<String, Integer> globalMap;
+	private long[] eventCounts;
 	/**
 	 * List of entries
 	 */
@@ -46,15 +71,79 @@ public class PairBuilder {
 	 * Output writer
 	 */
 	private NCWriter ncw;
-	/** 
-	 * Unique id buffer
+	private String pairfile;
+	/**
+	 * Maximum number of entries and events generated by one task
 	 */
-	private Set<String> idUniq;
+	private final static int chunkSize = 256, chunkEvents = 1 << 13;
 	/**
-	 * Unique pair buffer
+	 * Number of threads used to read the buffer file and to generate pairs
 	 */
-	private List<List<Pair>> unique;
-	private String pairfile;
+	private int threads = 1;
+	/**
+	 * Number of coreferent event pairs by pair of typed dependency symbols
+	 */
+	private ExternalCounter jointCounts;
+	/**
+	 * Number of coreferent event pairs, the denominator of the pmi numerator
+	 */
+	private long coreferentPairs;
+	/**
+	 * Flag to indicate that the buffer file is read twice instead of being held in memory
+	 */
+	private boolean streaming;
+	/**
+	 * Memory budget for the joint counts in bytes
+	 */
+	private long memory = Long.MAX_VALUE;
+	/**
+	 * Width and depth of the count-min sketches, 0 for exact counts
+	 */
+	private int sketchWidth, sketchDepth;
+	/**
+	 * Flag to indicate conservative update of the sketches
+	 */
+	private boolean conservative;
+	/**
+	 * Sketches of the event counts and joint counts, null if counts are exact
+	 */
+	private CountMinSketch eventSketch, jointSketch;
+	/**
+	 * Sketch keys by typed dependency symbol
+	 */
+	private long[] sketchKeys;
+	/**
+	 * Flag to indicate that counts are stored and updated with the records appended since the last run
+	 */
+	private boolean incremental;
+	/**
+	 * Counts of the buffer file
+	 */
+	private CountShard shard;
+	/**
+	 * Number of records counted and paired by an earlier run
+	 */
+	private long skipped;
+	/**
+	 * Length of the buffer file when it was read
+	 */
+	private long bufferLength;
+	/**
+	 * Minimum event count of both typed dependencies and minimum joint count of a written pair
+	 */
+	private long minCount, minJoint;
+	/**
+	 * Minimum pmi of a written pair
+	 */
+	private double minPmi = Double.NEGATIVE_INFINITY;
+	/**
+	 * Number of partners with the highest pmi kept per typed dependency, 0 for all
+	 */
+	private int topK;
+	/**
+	 * Keys of the pairs of typed dependency symbols among the top partners
+	 */
+	private LongLongMap topPairs;
 
 	/**
 	 * No-argument constructor
@@ -62,10 +151,9 @@ public class PairBuilder {
 	 */
 	public PairBuilder () throws IOException {
 		entries = new ArrayList<Entry>();
-		globalMap = new HashMap<String, Integer>();
-		idUniq = new HashSet<String>();
-		unique = new LinkedList<List<Pair>>();
-		
+		typedDeps = new SymbolTable();
+		eventCounts = new long[0];
+		ncw = new NCWriter();
 	}
 
 	/**
@@ -91,216 +179,764 @@ public class PairBuilder {
 	public String getPairPath () {
 		return pairfile;
 	}
+	/**
+	 * Sets the number of threads used to read the buffer file and to generate pairs.
+	 * With more than one thread, the file is memory-mapped and read in parallel ranges,
+	 * and chunks of entries are paired in parallel
+	 * @param t number of threads
+	 */
+	public void setThreads (int t) {
+		threads = t;
+	}
+
+	/**
+	 * Sets whether the buffer file is streamed
+	 * <p>
+	 * A streaming PairBuilder reads the buffer file twice: the first pass counts events and
+	 * coreferent event pairs, the second pass generates the pairs. Memory then depends on the
+	 * vocabulary instead of the number of documents. Default value: false
+	 * @param s flag
+	 */
+	public void setStreaming (boolean s) {
+		streaming = s;
+	}
+
+	/**
+	 * Sets the memory budget for the joint counts
+	 * <p>
+	 * Joint counts beyond the budget are spilled to sorted temporary files, which are merged
+	 * after counting. Setting a budget also makes the PairBuilder stream the buffer file.
+	 * Default value: unlimited
+	 * @param bytes budget in bytes
+	 */
+	public void setMemory (long bytes) {
+		memory = bytes;
+		streaming = true;
+	}
+
+	/**
+	 * Makes the PairBuilder estimate event counts and joint counts with count-min sketches
+	 * <p>
+	 * Memory for the counts is fixed to two sketches of <em>width</em> times <em>depth</em> counters
+	 * (per thread while reading), and the pmi is calculated from the estimates.
+	 * The error bound of the estimates is reported after reading.
+	 * Conservative update lowers the error, but the estimates then depend on the number of threads
+	 * @param width number of counters per row
+	 * @param depth number of rows
+	 * @param conservative flag to indicate conservative update
+	 */
+	public void setSketch (int width, int depth, boolean conservative) {
+		sketchWidth = width;
+		sketchDepth = depth;
+		this.conservative = conservative;
+	}
+
+	/**
+	 * Sets whether runs are incremental
+	 * <p>
+	 * An incremental PairBuilder stores its counts next to the buffer file (<em>buffer_counts</em>).
+	 * The next run only reads the records appended to the buffer file since then, adds them to the
+	 * stored counts, updates the pmi of the existing pair buffer file and appends the pairs of the
+	 * new records. Without stored counts or pair buffer file, or if the counted part of the buffer file
+	 * has changed, all records are read.
+	 * Incremental runs need exact counts. Default value: false
+	 * @param inc flag
+	 */
+	public void setIncremental (boolean inc) {
+		incremental = inc;
+	}
+
+	/**
+	 * Sets the thresholds below which pairs are not written to the pair buffer file
+	 * <p>
+	 * A pair is dropped if one of its typed dependencies occurs less than <em>minCount</em> times,
+	 * if its typed dependencies co-occur in less than <em>minJoint</em> coreferent event pairs or if
+	 * its pmi is below <em>minPmi</em>. Default values: no thresholds
+	 * @param minCount minimum event count
+	 * @param minJoint minimum joint count
+	 * @param minPmi minimum pmi
+	 */
+	public void setPruning (long minCount, long minJoint, double minPmi) {
+		this.minCount = minCount;
+		this.minJoint = minJoint;
+		this.minPmi = minPmi;
+	}
+
+	/**
+	 * Sets the number of partners kept per typed dependency
+	 * <p>
+	 * A pair is only written if the second typed dependency is among the <em>k</em> partners of the
+	 * first one with the highest pmi, among all partners that pass the thresholds. Needs exact counts,
+	 * the setting is ignored with sketches. Default value: 0 (all partners)
+	 * @param k number of partners
+	 */
+	public void setTopK (int k) {
+		topK = k;
+	}
+
+	/**
+	 * Returns whether pairs are pruned
+	 * @return true if a threshold or top partners are set
+	 */
+	private boolean isPruning () {
+		return minCount > 0 || minJoint > 0 || minPmi > Double.NEGATIVE_INFINITY || topK > 0;
+	}
+
 	/**
 	 * Method for reading data
+	 * <p>
+	 * Counts events and coreferent event pairs, and keeps the entries unless streaming.
+	 * Incremental runs only read the records that have not been counted yet
 	 * @throws IOException
 	 */
 	private void readData () throws IOException {
 		System.err.print("Reading data...");
 		// log start time
 		long startReading = System.currentTimeMillis();
-		// create reader
-		BufferedReader br = new BufferedReader(new FileReader(new File(path)));
-		// create buffer
-		String l = "";
-		// read file content
-		while ((l=br.readLine())!=null) {
-			// split off id
-			String[] sp = l.split(";");
-			String id = sp[0];
-			// create entry
-			Entry e = new Entry(id);
-			// split off event blocks
-			String[] blocks = sp[1].split("&!&");
-			for (int i = 0; i < blocks.length; i++) {
-				EventBlock eb = new EventBlock();
-				// split off events
-				String[] events = blocks[i].split(":");
-				for (int j = 0; j < events.length; j++) {
-					
-					eb.add(new Event(events[j]));
-					// split off dependency
-					String _str = events[j].split(" ")[0];
-					// correct length to remove dangling parenthesis
-					int _i = _str.length()-1;
-					_str = _str.substring(0, _i);
-					// populate global map
-					globalMap.put(_str, increaseCount(_str));
-					// increase absolute counter
-					absoluteCount++;
+		File buffer = new File(path);
+		bufferLength = buffer.length();
+		skipped = 0;
+		shard = null;
+		if (incremental && sketchWidth == 0 && !isPruning() && new File(pairfile).exists()) {
+			// counts of the earlier run
+			CountShard stored = newShard(memory / 2);
+			CountStore store = new CountStore(new File(path + "_counts"));
+			boolean done = false;
+			try {
+				if (store.load(stored, buffer)) {
+					skipped = store.getRecords();
+					CountShard appended = readSequential(skipped, memory / 2);
+					try {
+						stored.merge(appended);
+					} finally {
+						appended.close();
+					}
+					shard = stored;
 				}
-				// add created event block to entry
-				e.addEvent(eb);
+				done = true;
+			} finally {
+				if (!done || shard == null)
+					stored.close();
 			}
-			// add created entry to entries
-			entries.add(e);
 		}
-		// close reader
-		br.close();
+		if (shard == null) {
+			// binary buffers have no line structure to split at
+			boolean parallel = threads > 1 && !BinaryChainBufferReader.isBinary(buffer);
+			shard = parallel ? readMapped() : readSequential(0, memory);
+		}
+		entries = shard.getEntries();
+		typedDeps = shard.getTypedDeps();
+		eventCounts = shard.getCounts();
+		jointCounts = shard.getJointCounts();
+		coreferentPairs = shard.getCoreferentPairs();
+		absoluteCount = shard.getAbsoluteCount();
+		eventSketch = shard.getEventSketch();
+		jointSketch = shard.getJointSketch();
+		sketchKeys = shard.getKeys();
+		boolean done = false;
+		try {
+			// merge spilled joint counts
+			jointCounts.finish();
+			done = true;
+		} finally {
+			if (!done)
+				shard.close();
+		}
 		// log end time
 		long endReading = System.currentTimeMillis();
 		long secondsReading = endReading - startReading;
 		System.err.println("[" + secondsReading + " ms]");	
+		if (skipped > 0)
+			System.err.println((shard.getRecords() - skipped) + " new records added to the counts of " + skipped + " records");
+		if (jointCounts.getSpills() > 0)
+			System.err.println(jointCounts.size() + " joint counts merged from " + jointCounts.getSpills() + " spilled runs");
+		if (jointSketch != null) {
+			System.err.println("Sketches of " + jointSketch.getWidth() + "x" + jointSketch.getDepth() + " counters ["
+					+ (2 * jointSketch.footprint() >> 10) + " KB]: with probability " + (1 - jointSketch.getDelta())
+					+ ", estimates exceed event counts by at most " + eventSketch.getErrorBound()
+					+ " and joint counts by at most " + jointSketch.getErrorBound());
+		}
+		topPairs = null;
+		if (topK > 0 && jointSketch != null)
+			System.err.println("Top partners need exact counts, keeping all partners");
+		else if (topK > 0)
+			topPairs = topPairs();
+	}
+
+	/**
+	 * Selects the top partners of every typed dependency
+	 * <p>
+	 * Joint counts are sorted by key, so the partners of a typed dependency are consecutive.
+	 * Ties are broken in favour of the lower symbol
+	 * @return keys of the pairs among the top partners
+	 */
+	private LongLongMap topPairs () {
+		LongLongMap top = new LongLongMap(1024);
+		long[] keys = new long[16];
+		double[] pmis = new double[16];
+		int n = 0;
+		int current = -1;
+		ExternalCounter.Cursor c = jointCounts.cursor();
+		while (true) {
+			boolean more = c.next();
+			int td1 = more ? (int) (c.key() >>> 32) : -1;
+			// end of the partners of the current typed dependency
+			if (td1 != current && n > 0) {
+				double[] sorted = Arrays.copyOf(pmis, n);
+				Arrays.sort(sorted);
+				double threshold = n > topK ? sorted[n - topK] : Double.NEGATIVE_INFINITY;
+				int kept = 0;
+				for (int i = 0; i < n; i++) {
+					if (pmis[i] > threshold) {
+						top.put(keys[i], 1);
+						kept++;
+					}
+				}
+				for (int i = 0; i < n && kept < topK; i++) {
+					if (pmis[i] == threshold) {
+						top.put(keys[i], 1);
+						kept++;
+					}
+				}
+				n = 0;
+			}
+			if (!more)
+				return top;
+			current = td1;
+			int td2 = (int) c.key();
+			double pmi = pmi(td1, td2);
+			// candidates are pairs that could be written
+			if (td1 == td2 || prune(td1, td2, pmi) >= 0)
+				continue;
+			if (n == keys.length) {
+				keys = Arrays.copyOf(keys, n * 2);
+				pmis = Arrays.copyOf(pmis, n * 2);
+			}
+			keys[n] = c.key();
+			pmis[n++] = pmi;
+		}
+	}
+
+	/**
+	 * Decides whether a pair is dropped
+	 * @param td1 typed dependency symbol of the first event
+	 * @param td2 typed dependency symbol of the second event
+	 * @param pmi pmi of the pair
+	 * @return reason for dropping the pair as defined in {@link PairChunk}, -1 if the pair is kept
+	 */
+	private int prune (int td1, int td2, double pmi) {
+		if (getCount(td1) < minCount || getCount(td2) < minCount)
+			return PairChunk.COUNT;
+		if (minJoint > 0 && getJointCount(td1, td2) < minJoint)
+			return PairChunk.JOINT;
+		if (pmi < minPmi)
+			return PairChunk.PMI;
+		if (topPairs != null && !topPairs.containsKey(CountShard.jointKey(td1, td2)))
+			return PairChunk.TOP;
+		return -1;
+	}
+
+	/**
+	 * Creates an empty shard
+	 * @param budget memory budget for the joint counts in bytes
+	 * @return shard
+	 */
+	private CountShard newShard (long budget) {
+		CountShard shard = new CountShard(!streaming, budget);
+		if (sketchWidth > 0)
+			shard.useSketches(sketchWidth, sketchDepth, conservative);
+		return shard;
 	}
 
 	/**
-	 * Helper method to increase map value
+	 * Reads the buffer file record by record
+	 * @param skip number of records to skip
+	 * @param budget memory budget for the joint counts in bytes
+	 * @return shard of the remaining records
+	 * @throws IOException
+	 */
+	private CountShard readSequential (long skip, long budget) throws IOException {
+		CountShard shard = newShard(budget);
+		boolean done = false;
+		try {
+			// create reader for text or binary buffer
+			ChainBufferReader br = new Reader().openChainBuffer(new File(path));
+			try {
+				br.skip(skip);
+				Entry e;
+				// read file content
+				while ((e=br.next())!=null)
+					shard.add(e);
+			} finally {
+				// close reader
+				br.close();
+			}
+			done = true;
+		} finally {
+			// delete spilled joint counts
+			if (!done)
+				shard.close();
+		}
+		return shard;
+	}
+
+	/**
+	 * Reads the buffer file in parallel
 	 * <p>
-	 * If key <b>key</b> is in map, returns value for <b>key</b> plus one.
-	 * <br>Otherwise returns 1
-	 * @param key key in map
-	 * @return value of key plus one
+	 * The file is split into newline-aligned ranges which are memory-mapped and
+	 * read into one shard each. The shards are merged in file order. The memory budget is
+	 * divided between the shards and the merged shard
+	 * @return shard of the whole file
+	 * @throws IOException
 	 */
-	private int increaseCount (String key) {
-		if (globalMap.containsKey(key))
-			return globalMap.get(key)+1;
-		return 1;
+	private CountShard readMapped () throws IOException {
+		final long budget = memory / (threads + 1);
+		final FileChannel fc = new FileInputStream(path).getChannel();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<Future<CountShard>> tasks = new ArrayList<Future<CountShard>>();
+			for (final long[] range : MappedFile.ranges(fc, threads)) {
+				tasks.add(pool.submit(new Callable<CountShard>() {
+					@Override
+					public CountShard call () throws IOException {
+						CountShard shard = newShard(budget);
+						boolean done = false;
+						try {
+							readRange(MappedFile.map(fc, range), shard);
+							done = true;
+						} finally {
+							if (!done)
+								shard.close();
+						}
+						return shard;
+					}
+				}));
+			}
+			CountShard shard = newShard(budget);
+			boolean done = false;
+			try {
+				for (Future<CountShard> task : tasks)
+					shard.merge(MappedFile.await(task));
+				done = true;
+			} finally {
+				if (!done) {
+					// delete the spilled joint counts of all shards, merged shards are closed already
+					shard.close();
+					for (Future<CountShard> task : tasks) {
+						try {
+							MappedFile.await(task).close();
+						} catch (Exception e) {
+							// the task has failed and closed its shard
+						}
+					}
+				}
+			}
+			return shard;
+		} finally {
+			pool.shutdown();
+			fc.close();
+		}
 	}
 
 	/**
-	 * Helper method to retrieve map value
+	 * Reads the records of a mapped range of the buffer file into a shard
 	 * <p>
-	 * If key <b>key</b> is in map, returns value for <b>key</b>.
-	 * <br>Otherwise returns 0
-	 * @param key key
-	 * @return value of key
+	 * Lines are split at the line break bytes of the mapped file and decoded one at a time like FileReader,
+	 * so only the current line is held on the heap, however large the range is
+	 * @param bb mapped range
+	 * @param shard shard
+	 * @throws IOException if joint counts cannot be spilled
 	 */
-	private int getCount (String key) {
-		if (globalMap.containsKey(key))
-			return globalMap.get(key);
-		return 0;
+	private static void readRange (ByteBuffer bb, CountShard shard) throws IOException {
+		CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer chars = CharBuffer.allocate(1 << 12);
+		int start = 0, limit = bb.limit();
+		for (int i = 0; i <= limit; i++) {
+			byte b = i < limit ? bb.get(i) : (byte) '\n';
+			if (b != '\n' && b != '\r')
+				continue;
+			// last line without line break
+			if (i == limit && start == limit)
+				break;
+			ByteBuffer line = bb.duplicate();
+			line.limit(i).position(start);
+			// a decoded line has at most as many chars as bytes
+			if (chars.capacity() < i - start)
+				chars = CharBuffer.allocate(Math.max(i - start, chars.capacity() * 2));
+			chars.clear();
+			decoder.reset();
+			decoder.decode(line, chars, true);
+			decoder.flush(chars);
+			chars.flip();
+			shard.parseLine(chars.toString());
+			// treat \r\n as one line break
+			if (b == '\r' && i+1 < limit && bb.get(i+1) == '\n')
+				i++;
+			start = i+1;
+		}
+	}
+
+	/**
+	 * Helper method to retrieve the count of a typed dependency
+	 * @param td typed dependency symbol
+	 * @return number of events with the typed dependency
+	 */
+	private long getCount (int td) {
+		if (eventSketch != null)
+			return eventSketch.estimate(sketchKeys[td]);
+		return eventCounts[td];
 	}
 
 	/**
 	 * Main pair generating method
+	 * <p>
+	 * Entries are paired in chunks. With more than one thread, chunks are paired in parallel
+	 * and written in the order of the buffer file. The counts are only read while pairing.
+	 * <p>
+	 * The pair buffer file is written to a temporary file first, which then replaces the
+	 * pair buffer file. Incremental runs copy the pairs of the earlier run with updated pmi
 	 * @throws IOException
 	 */
 	public void generatePairs () throws IOException {
+		// first pass
 		readData();
-		System.err.println("Generating pairs...");
-		for (Entry e : entries) {
-			// initialize local list
-			List <Pair> local = new ArrayList<Pair>();
-			// add ID to local list
-			local.add(new Pair(e.getId()));
-			// add local list to unique list
-			unique.add(local);
-			// generate pairs
-			boolean generationSuccess = treatBlock(e.getEventBlock());
-			// if no events were generated
-			if (!generationSuccess) {
-				// remove local from unique list
-				unique.remove(local);
+		System.err.print("Generating pairs...");
+		long start = System.currentTimeMillis();
+		long pairs = 0, updated = 0;
+		long[] dropped = new long[4];
+		int documents = 0;
+		String target = pairfile + ".tmp";
+		new File(target).delete();
+		// second pass or entries in memory
+		ChainBufferReader br = streaming ? new Reader().openChainBuffer(new File(path)) : null;
+		Iterator<Entry> it = streaming ? null : entries.iterator();
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		VisitedPairs visited = new VisitedPairs();
+		// chunks being paired, in file order
+		LinkedList<Future<PairChunk>> pending = new LinkedList<Future<PairChunk>>();
+		// flag to indicate that the pair buffer file has been replaced
+		boolean done = false;
+		try {
+			if (skipped > 0) {
+				updated = rescore(new File(pairfile), target);
+				if (br != null)
+					br.skip(skipped);
+			}
+			PairChunk chunk;
+			while ((chunk = nextChunk(br, it)) != null) {
+				if (pool == null) {
+					treatChunk(chunk, visited);
+				} else {
+					pending.add(pool.submit(chunkTask(chunk)));
+					// bound the number of chunks in memory
+					if (pending.size() < threads * 2)
+						continue;
+					chunk = MappedFile.await(pending.removeFirst());
+				}
+				pairs += chunk.getPairs();
+				documents += chunk.getDocuments();
+				for (int i = 0; i < dropped.length; i++)
+					dropped[i] += chunk.getDropped()[i];
+				writeOutput(chunk.getText().toString(), target);
+			}
+			while (!pending.isEmpty()) {
+				chunk = MappedFile.await(pending.removeFirst());
+				pairs += chunk.getPairs();
+				documents += chunk.getDocuments();
+				for (int i = 0; i < dropped.length; i++)
+					dropped[i] += chunk.getDropped()[i];
+				writeOutput(chunk.getText().toString(), target);
+			}
+			ncw.close();
+			// no pairs at all
+			new File(target).createNewFile();
+			Files.move(new File(target).toPath(), new File(pairfile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			// stored counts have to match the pair buffer file
+			File counts = new File(path + "_counts");
+			if (incremental && sketchWidth == 0 && !isPruning())
+				new CountStore(counts).save(shard, new File(path), bufferLength);
+			else
+				counts.delete();
+			done = true;
+		} finally {
+			if (!done) {
+				// the error of the run is more relevant than an error closing the half-written file
+				try {
+					ncw.close();
+				} catch (IOException e) {
+					// ignore error
+				}
+				new File(target).delete();
 			}
+			if (pool != null)
+				pool.shutdown();
+			if (br != null)
+				br.close();
+			// delete spilled joint counts
+			jointCounts.close();
 		}
-		System.err.println("Writing output...");
-		// for each set
-		for (List<Pair> sp : unique) {
-			// for each pair
-			for (Pair p : sp)
-				writeOutput(p);
+		System.err.println("[" + (System.currentTimeMillis() - start) + " ms] " + pairs + " pairs from " + documents + " documents");
+		if (skipped > 0)
+			System.err.println("Updated the pmi of " + updated + " pairs of earlier runs");
+		if (isPruning()) {
+			System.err.println("Dropped " + (dropped[PairChunk.COUNT] + dropped[PairChunk.JOINT] + dropped[PairChunk.PMI] + dropped[PairChunk.TOP])
+					+ " pairs: " + dropped[PairChunk.COUNT] + " below the minimum count, " + dropped[PairChunk.JOINT]
+					+ " below the minimum joint count, " + dropped[PairChunk.PMI] + " below the minimum pmi, "
+					+ dropped[PairChunk.TOP] + " not among the top partners");
 		}
 		System.err.println("Done generating pairs.");
 	}
 
 	/**
-	 * Helper method to write output
-	 * @param p pair to write
+	 * Collects the next entries to pair
+	 * @param br reader of the second pass, or null
+	 * @param it iterator over the entries in memory, or null
+	 * @return chunk, or null if there are no more entries
+	 * @throws IOException
 	 */
-	private void writeOutput (Pair p) {
-		// initialize writer
-		ncw = new NCWriter();
-		// buffer
-		String p4 = "";
-		// if pair is header
-		if (p.isHeader()) {
-			// add space
-			try {
-				ncw.write("\n", pairfile);
-			} catch (IOException e) {
-				// nothing
+	private PairChunk nextChunk (ChainBufferReader br, Iterator<Entry> it) throws IOException {
+		PairChunk chunk = new PairChunk(chunkSize);
+		while (chunk.size() < chunkSize && chunk.getEvents() < chunkEvents) {
+			Entry e = br != null ? br.next() : it.hasNext() ? it.next() : null;
+			if (e == null)
+				break;
+			chunk.add(e);
+		}
+		return chunk.size() > 0 ? chunk : null;
+	}
+
+	/**
+	 * Returns a task that pairs a chunk with its own set of visited pairs
+	 * @param chunk chunk
+	 * @return task
+	 */
+	private Callable<PairChunk> chunkTask (final PairChunk chunk) {
+		return new Callable<PairChunk>() {
+			@Override
+			public PairChunk call () {
+				treatChunk(chunk, new VisitedPairs());
+				return chunk;
+			}
+		};
+	}
+
+	/**
+	 * Generates the pairs of the entries of a chunk
+	 * @param chunk chunk
+	 * @param visited visited pairs, not shared with other threads
+	 */
+	private void treatChunk (PairChunk chunk, VisitedPairs visited) {
+		for (Entry e : chunk.getEntries()) {
+			// re-read entries have no typed dependency symbols yet
+			if (streaming)
+				lookupTypedDeps(e);
+			chunk.count(treatEntry(e, visited, chunk));
+		}
+	}
+
+	/**
+	 * Generates the pairs of a document
+	 * @param e entry
+	 * @param visited visited pairs
+	 * @param chunk chunk the pairs are appended to
+	 * @return number of pairs
+	 */
+	private int treatEntry (Entry e, VisitedPairs visited, PairChunk chunk) {
+		// initialize local list
+		List <Pair> local = new ArrayList<Pair>();
+		// add ID to local list
+		local.add(new Pair(e.getId()));
+		// generate pairs, write local list only if pairs were generated
+		if (!treatBlock(e.getEventBlock(), local, visited, chunk))
+			return 0;
+		StringBuilder out = chunk.getText();
+		for (Pair p : local)
+			out.append(format(p)).append('\n');
+		return local.size() - 1;
+	}
+
+	/**
+	 * Sets the typed dependency symbols of a re-read entry
+	 * @param e entry
+	 */
+	private void lookupTypedDeps (Entry e) {
+		for (EventBlock eb : e.getEventBlock()) {
+			for (Event ev : eb.getEvents())
+				ev.setTypedDepId(typedDeps.lookup(ev.getTypedDep()));
+		}
+	}
+
+	/**
+	 * Updates the pmi of the pairs of the pair buffer file of an earlier run
+	 * @param old pair buffer file
+	 * @param target file the updated pairs are written to
+	 * @return number of pairs
+	 * @throws IOException if the pair buffer file contains unknown typed dependencies
+	 */
+	private long rescore (File old, String target) throws IOException {
+		long n = 0;
+		StringBuilder sb = new StringBuilder();
+		BufferedReader br = new BufferedReader(new FileReader(old));
+		try {
+			String l;
+			while ((l = br.readLine()) != null) {
+				// typed dep 1 \t typed dep 2 \t pmi | mentions |
+				int t1 = l.indexOf('\t');
+				int t2 = t1 < 0 ? -1 : l.indexOf('\t', t1+1);
+				int bar = t2 < 0 ? -1 : l.indexOf(" |", t2);
+				if (bar < 0) {
+					// headers and empty lines
+					sb.append(l).append('\n');
+				} else {
+					int td1 = typedDeps.lookup(l.substring(0, t1));
+					int td2 = typedDeps.lookup(l.substring(t1+1, t2));
+					if (td1 < 0 || td2 < 0)
+						throw new IOException(old.getName() + " does not match the stored counts");
+					sb.append(l, 0, t2+1).append(pmi(td1, td2)).append(l, bar, l.length()).append('\n');
+					n++;
+				}
+				if (sb.length() >= 1 << 16) {
+					writeOutput(sb.toString(), target);
+					sb.setLength(0);
+				}
 			}
-			// use id
-			p4 = p.getH();
-		} else { // else write pair information
-			String p1 = p.getE1().getTypedDep() + "\t" + p.getE2().getTypedDep() + "\t" + p.getPmi();
-			String p2 = " (" + p.getE1().getMention() + ") [" + p.getE1().getId() + "] ";
-			String p3 = " (" + p.getE2().getMention() + ") [" + p.getE2().getId() + "] ";
-			p4 = p1 + " |" + p2 + ":" + p3 + "|";
+		} finally {
+			br.close();
 		}
+		writeOutput(sb.toString(), target);
+		return n;
+	}
+
+	/**
+	 * Helper method to write output
+	 * @param text pairs to write
+	 * @param file pair buffer file
+	 */
+	private void writeOutput (String text, String file) {
 		try {
 			// write output
-			ncw.write(p4, pairfile);
-			ncw.write("\n", pairfile);
+			ncw.write(text, file);
 		} catch (IOException e) {
 			// nothing
 		}
 	}
 
+	/**
+	 * Formats a pair as line of the pair buffer file
+	 * @param p pair
+	 * @return line
+	 */
+	private static String format (Pair p) {
+		// if pair is header
+		if (p.isHeader()) {
+			// add space and use id
+			return "\n" + p.getH();
+		}
+		// else write pair information
+		String p1 = p.getE1().getTypedDep() + "\t" + p.getE2().getTypedDep() + "\t" + p.getPmi();
+		String p2 = " (" + p.getE1().getMention() + ") [" + p.getE1().getId() + "] ";
+		String p3 = " (" + p.getE2().getMention() + ") [" + p.getE2().getId() + "] ";
+		return p1 + " |" + p2 + ":" + p3 + "|";
+	}
+
 	/**
 	 * Helper method to treat lists of event blocks
+	 * <p>
+	 * Event blocks that yield the same pairs as an earlier event block of the
+	 * same document are dropped. Mention ids include the document id, so
+	 * different documents never yield the same pairs
 	 * @param le list of event blocks
+	 * @param local pairs of the document
+	 * @param visited visited pairs
+	 * @param chunk chunk that counts dropped pairs
 	 * @return false if no pairs were generated. true otherwise
 	 */
-	private boolean treatBlock (List<EventBlock> le) {
+	private boolean treatBlock (List<EventBlock> le, List<Pair> local, VisitedPairs visited, PairChunk chunk) {
 		boolean check = false;
+		// content of the pairs of each event block
+		Set<String> seen = new HashSet<String>();
 		// for all event blocks
 		for (EventBlock eb : le) {
 			// get the pairs for an event
-			List<Pair> ret = treatEvent (eb);
+			List<Pair> ret = treatEvent (eb, visited, chunk);
 			// if pairs can be extracted
 			if (!ret.isEmpty()) {
 				check = true;
-				// if unique doesn't contain the result
-				if (!unique.contains(ret)) {
-					// add pairs to unique list
-					unique.add(ret);
-				}	
+				// if the document doesn't contain the result yet
+				if (seen.add(fingerprint(ret))) {
+					// add pairs to document
+					local.addAll(ret);
+				}
 			}
 		}
 		// return whether events were generated
 		return check;
 	}
 
+	/**
+	 * Returns the content of a list of pairs as written to the pair buffer file
+	 * <p>
+	 * Pair has no content-based equals method, so lists of pairs are compared by this string
+	 * @param lp list of pairs
+	 * @return content
+	 */
+	private static String fingerprint (List<Pair> lp) {
+		StringBuilder sb = new StringBuilder();
+		for (Pair p : lp)
+			sb.append(format(p)).append('\n');
+		return sb.toString();
+	}
+
 	/**
 	 * Helper method to treat event blocks
+	 * <p>
+	 * Visited pairs of mention ids are tracked by slot, every distinct mention id of the
+	 * block gets a slot. Event pairs are visited in the original order, where the first
+	 * event of the block is never the second event of a pair. Pruned pairs are visited, but not returned
 	 * @param eb event block
-	 * @return 
+	 * @param visited visited pairs
+	 * @param chunk chunk that counts dropped pairs
+	 * @return pairs of the event block
 	 */
-	private List<Pair> treatEvent (EventBlock eb) {
+	private List<Pair> treatEvent (EventBlock eb, VisitedPairs visited, PairChunk chunk) {
 		List <Pair> local_unique = new ArrayList<Pair>();
-		// change to array
-		Object[] e = eb.getEvents().toArray();
+		List<Event> e = eb.getEvents();
+		int n = e.size();
+		// assign slots to mention ids
+		visited.reset(e);
 		// double loop
-		for (int i = 0; i < e.length; i++) {
-			for (int j = 1; j < e.length; j++) {
+		for (int i = 0; i < n; i++) {
+			int si = visited.slot(i);
+			for (int j = 1; j < n; j++) {
 				if (i == j)
 					continue;
-				// get events
-				Event e1 = (Event) e[i];
-				Event e2 = (Event) e[j];
-				// generate keys
-				String key1 = e1.getId() + e2.getId();
-				String key2 = e2.getId() + e1.getId();
-				// check if keys are stored
-				if (!(idUniq.contains(key1)||idUniq.contains(key2))) {
+				int sj = visited.slot(j);
+				// check if the pair of mention ids has been visited
+				if (!visited.contains(si, sj)) {
 					// if e1 and e2 have corefering mentions
-					if (e1.getId().equals(e2.getId())) {
+					if (si == sj) {
+						// get events
+						Event e1 = e.get(i);
+						Event e2 = e.get(j);
 						// ignore same dependency
-						if (e1.getTypedDep().equals(e2.getTypedDep()))
+						if (e1.getTypedDepId() == e2.getTypedDepId())
 							continue;
+						double pmi = pmi(e1,e2);
+						int reason = prune(e1.getTypedDepId(), e2.getTypedDepId(), pmi);
 						// add pair to pair set
-						local_unique.add(new Pair(e1,e2,pmi(e1,e2)));
+						if (reason < 0)
+							local_unique.add(new Pair(e1,e2,pmi));
+						else
+							chunk.drop(reason);
 					}
 					// else do nothing
 				}
-				// add keys
-				idUniq.add(key1);
-				idUniq.add(key2);
+				// mark as visited
+				visited.add(si, sj);
 			}
 		}
-		// clear unique buffer
-		idUniq.clear();
 		return local_unique;
 	}
 
@@ -311,59 +947,51 @@ public class PairBuilder {
 	 * @return pmi
 	 */
 	private double pmi (Event e1, Event e2) {
+		return pmi(e1.getTypedDepId(), e2.getTypedDepId());
+	}
+
+	/**
+	 * Calculates the pmi for two given typed dependencies
+	 * @param td1 typed dependency symbol of event 1
+	 * @param td2 typed dependency symbol of event 2
+	 * @return pmi
+	 */
+	private double pmi (int td1, int td2) {
 		// probability for event 1
-		double c1 = ((double)getCount(e1.getTypedDep()))/absoluteCount;
+		double c1 = ((double)getCount(td1))/absoluteCount;
 		// probability for event 2
-		double c2 = ((double)getCount(e2.getTypedDep()))/absoluteCount;
+		double c2 = ((double)getCount(td2))/absoluteCount;
 		// numerator
-		double num = pwdvg(e1, e2);
+		double num = pwdvg(td1, td2);
 		// pmi
 		return Math.log(num/(c1 * c2));
 	}
 
+	/**
+	 * Helper method to retrieve the joint count of two typed dependencies
+	 * @param td1 typed dependency symbol of the first event
+	 * @param td2 typed dependency symbol of the second event
+	 * @return number of coreferent event pairs with these typed dependencies
+	 */
+	private long getJointCount (int td1, int td2) {
+		if (jointSketch != null)
+			return jointSketch.estimate(CountShard.jointSketchKey(sketchKeys[td1], sketchKeys[td2]));
+		return jointCounts.get(CountShard.jointKey(td1, td2), 0);
+	}
+
 	/**
 	 * Calculates the numerator of the pmi equation
-	 * @param e1 first event
-	 * @param e2 second event
+	 * <p>
+	 * Fraction of coreferent event pairs in the corpus where the first
+	 * event has typed dependency td1 and the second typed dependency td2
+	 * @param td1 typed dependency symbol of the first event
+	 * @param td2 typed dependency symbol of the second event
 	 * @return numerator for pmi
 	 */
-	private double pwdvg (Event e1, Event e2) {
-		// counter vars
-		int num = 0;
-		int denom = 0;
-		// for each entry
-		for (Entry e : entries) {
-			// for each event block
-			for (EventBlock eb : e.getEventBlock()) {
-				// events
-				List<Event> events = eb.getEvents();
-				// double loop
-				for (int i = 0; i < events.size(); i++) {
-					for (int j = 0; j < events.size(); j++) {
-						// skip if i == j
-						if (i == j)
-							continue;
-						// get events
-						Event i_e1 = events.get(i);
-						Event i_e2 = events.get(j);
-						// if inner event 1 coreferent with inner event 2
-						if (i_e1.getMention().equals(i_e2.getMention())) {
-							// counter up
-							denom++;
-						}
-						// if given e1 coreferent with given e2
-						if (e1.equals(i_e1)&&e2.equals(i_e2)) {
-							if (i_e1.getMention().equals(i_e2.getMention())) {
-								// counter up
-								num++;
-							}
-						}
-					}
-				}
-			} 
-		}
+	private double pwdvg (int td1, int td2) {
+		long num = getJointCount(td1, td2);
 		// return
-		return ((double)num)/denom;
+		return ((double)num)/coreferentPairs;
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,142 @@
+package chain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import chain.element.Entry;
+import chain.element.EventBlock;
+
+/**
+ * Class used to hold a batch of consecutive entries and the pair buffer text generated from them
+ * <p>
+ * Chunks are generated independently of each other and written in the order of their entries,
+ * so the pair buffer file does not depend on the number of threads
+ * @author David
+ *
+ */
+class PairChunk {
+
+	/**
+	 * Reasons for dropping a pair: a typed dependency below the minimum count, joint count below the minimum,
+	 * pmi below the floor, not among the top partners of the first typed dependency
+	 */
+	final static int COUNT = 0, JOINT = 1, PMI = 2, TOP = 3;
+
+	/**
+	 * Entries of the chunk
+	 */
+	private List<Entry> entries;
+	/**
+	 * Number of events of the entries
+	 */
+	private int events;
+	/**
+	 * Generated pair buffer text
+	 */
+	private StringBuilder text;
+	/**
+	 * Number of generated pairs
+	 */
+	private long pairs;
+	/**
+	 * Number of documents that yielded pairs
+	 */
+	private int documents;
+	/**
+	 * Number of dropped pairs by reason
+	 */
+	private long[] dropped;
+
+	/**
+	 * Constructor
+	 * @param capacity expected number of entries
+	 */
+	PairChunk (int capacity) {
+		entries = new ArrayList<Entry>(capacity);
+		text = new StringBuilder();
+		dropped = new long[4];
+	}
+
+	/**
+	 * Adds an entry
+	 * @param e entry
+	 */
+	void add (Entry e) {
+		entries.add(e);
+		for (EventBlock eb : e.getEventBlock())
+			events += eb.getEvents().size();
+	}
+
+	/**
+	 * Returns the number of entries
+	 * @return number of entries
+	 */
+	int size () {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of events of the entries
+	 * @return number of events
+	 */
+	int getEvents () {
+		return events;
+	}
+
+	/**
+	 * Returns the entries
+	 * @return entries
+	 */
+	List<Entry> getEntries () {
+		return entries;
+	}
+
+	/**
+	 * Returns the text builder the pairs of the chunk are appended to
+	 * @return text
+	 */
+	StringBuilder getText () {
+		return text;
+	}
+
+	/**
+	 * Counts the pairs of a document
+	 * @param n number of pairs of the document
+	 */
+	void count (int n) {
+		pairs += n;
+		documents += n > 0 ? 1 : 0;
+	}
+
+	/**
+	 * Counts a dropped pair
+	 * @param reason reason for dropping the pair
+	 */
+	void drop (int reason) {
+		dropped[reason]++;
+	}
+
+	/**
+	 * Returns the number of dropped pairs by reason
+	 * @return dropped pairs
+	 */
+	long[] getDropped () {
+		return dropped;
+	}
+
+	/**
+	 * Returns the number of generated pairs
+	 * @return number of pairs
+	 */
+	long getPairs () {
+		return pairs;
+	}
+
+	/**
+	 * Returns the number of documents that yielded pairs
+	 * @return number of documents
+	 */
+	int getDocuments () {
+		return documents;
+	}
+}
@@ -0,0 +1,199 @@
+package chain;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Tool used to measure the pmi deviation of approximate counts
+ * <p>
+ * Builds the pair buffer of a chain buffer twice, with exact counts and with count-min sketches,
+ * and compares the pmi of every pair. Both runs generate the same pairs in the same order, so the
+ * pair buffer files are compared line by line
+ * @author David
+ *
+ */
+public class PmiComparison {
+
+	/**
+	 * Number of compared pairs
+	 */
+	private long pairs;
+	/**
+	 * Number of pairs with a different pmi
+	 */
+	private long differing;
+	/**
+	 * Number of skipped pairs with a pmi that is not finite
+	 */
+	private long skipped;
+	/**
+	 * Sum of absolute and squared deviations
+	 */
+	private double sumAbs, sumSquares;
+	/**
+	 * Largest absolute deviation
+	 */
+	private double max;
+
+	/**
+	 * Compares the pmi of two pair buffer files of the same chain buffer
+	 * @param exact pair buffer file with exact counts
+	 * @param approximate pair buffer file with approximate counts
+	 * @throws IOException if the files contain different pairs
+	 */
+	public void compare (File exact, File approximate) throws IOException {
+		BufferedReader r1 = new BufferedReader(new FileReader(exact));
+		try {
+			BufferedReader r2 = new BufferedReader(new FileReader(approximate));
+			try {
+				String l1, l2;
+				int line = 0;
+				while ((l1 = r1.readLine()) != null) {
+					l2 = r2.readLine();
+					line++;
+					if (l2 == null)
+						throw new IOException("Approximate pair buffer ends at line " + line);
+					// headers and empty lines
+					if (l1.indexOf('|') < 0) {
+						if (!l1.equals(l2))
+							throw new IOException("Different documents at line " + line);
+						continue;
+					}
+					// typed dep 1 \t typed dep 2 \t pmi | mentions |
+					int t1 = l1.lastIndexOf('\t'), t2 = l2.lastIndexOf('\t');
+					int b1 = l1.indexOf(" |", t1), b2 = l2.indexOf(" |", t2);
+					if (t1 < 0 || t2 < 0 || b1 < 0 || b2 < 0 || !l1.substring(0, t1).equals(l2.substring(0, t2))
+							|| !l1.substring(b1).equals(l2.substring(b2)))
+						throw new IOException("Different pairs at line " + line);
+					add(Double.parseDouble(l1.substring(t1 + 1, b1)), Double.parseDouble(l2.substring(t2 + 1, b2)));
+				}
+				if (r2.readLine() != null)
+					throw new IOException("Exact pair buffer ends at line " + line);
+			} finally {
+				r2.close();
+			}
+		} finally {
+			r1.close();
+		}
+	}
+
+	/**
+	 * Adds the pmi of a pair
+	 * <p>
+	 * Pairs with a pmi that is not finite (-Infinity if a count is 0) are only counted as skipped,
+	 * their deviation would be infinite or undefined and hide the deviation of all other pairs
+	 * @param exact exact pmi
+	 * @param approximate approximate pmi
+	 */
+	private void add (double exact, double approximate) {
+		if (Double.isInfinite(exact) || Double.isNaN(exact) || Double.isInfinite(approximate) || Double.isNaN(approximate)) {
+			skipped++;
+			return;
+		}
+		double d = Math.abs(approximate - exact);
+		pairs++;
+		if (d > 0)
+			differing++;
+		sumAbs += d;
+		sumSquares += d * d;
+		max = Math.max(max, d);
+	}
+
+	/**
+	 * Returns the number of compared pairs, without skipped pairs
+	 * @return number of pairs
+	 */
+	public long getPairs () {
+		return pairs;
+	}
+
+	/**
+	 * Returns the number of pairs with a different pmi
+	 * @return number of pairs
+	 */
+	public long getDiffering () {
+		return differing;
+	}
+
+	/**
+	 * Returns the number of skipped pairs with a pmi that is not finite
+	 * @return number of pairs
+	 */
+	public long getSkipped () {
+		return skipped;
+	}
+
+	/**
+	 * Returns the mean absolute pmi deviation
+	 * @return mean absolute deviation
+	 */
+	public double getMeanDeviation () {
+		return pairs == 0 ? 0 : sumAbs / pairs;
+	}
+
+	/**
+	 * Returns the root mean square pmi deviation
+	 * @return root mean square deviation
+	 */
+	public double getRmsDeviation () {
+		return pairs == 0 ? 0 : Math.sqrt(sumSquares / pairs);
+	}
+
+	/**
+	 * Returns the largest absolute pmi deviation
+	 * @return largest deviation
+	 */
+	public double getMaxDeviation () {
+		return max;
+	}
+
+	/**
+	 * Builds the pair buffer of a chain buffer with exact and approximate counts and compares the pmi
+	 * @param args chain buffer file, sketch width, sketch depth, optionally <em>cu</em> for conservative update
+	 */
+	public static void main (String[] args) {
+		if (args.length != 3 && !(args.length == 4 && args[3].equals("cu"))) {
+			System.err.println("Usage: PmiComparison <buffer> <width> <depth> [cu]");
+			return;
+		}
+		try {
+			int width = Integer.parseInt(args[1]);
+			int depth = Integer.parseInt(args[2]);
+			boolean conservative = args.length == 4;
+			File exact = File.createTempFile("exact", "_pairs");
+			File approximate = File.createTempFile("sketch", "_pairs");
+			exact.deleteOnExit();
+			approximate.deleteOnExit();
+			// pairs are appended, start from empty files
+			exact.delete();
+			approximate.delete();
+			PairBuilder pb = new PairBuilder();
+			pb.setPath(args[0]);
+			pb.setPairPath(exact.getPath());
+			pb.setStreaming(true);
+			pb.generatePairs();
+			pb = new PairBuilder();
+			pb.setPath(args[0]);
+			pb.setPairPath(approximate.getPath());
+			pb.setStreaming(true);
+			pb.setSketch(width, depth, conservative);
+			pb.generatePairs();
+			PmiComparison c = new PmiComparison();
+			c.compare(exact, approximate);
+			System.out.println("Pairs: " + c.getPairs());
+			System.out.println("Pairs with different pmi: " + c.getDiffering());
+			System.out.println("Pairs with non-finite pmi (skipped): " + c.getSkipped());
+			System.out.println("Mean absolute deviation: " + c.getMeanDeviation());
+			System.out.println("Root mean square deviation: " + c.getRmsDeviation());
+			System.out.println("Maximum deviation: " + c.getMaxDeviation());
+			exact.delete();
+			approximate.delete();
+		} catch (NumberFormatException e) {
+			System.err.println("Width and depth have to be integers!");
+		} catch (IOException e) {
+			System.err.println("An exception occured:\n" + e.getMessage());
+		}
+	}
+}
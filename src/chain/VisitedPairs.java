@@ -0,0 +1,119 @@
+package chain;
+
+import java.util.Arrays;
+import java.util.List;
+
+import util.SymbolTable;
+
+import chain.element.Event;
+
+/**
+ * Set of visited pairs of mention ids of an event block
+ * <p>
+ * Every distinct mention id of the block gets a slot, and unordered pairs of slots are
+ * stored as triangular bitset. The bitset is reused across event blocks and only grows, so
+ * tracking visited pairs does not allocate once the largest block has been seen.
+ * A VisitedPairs is not thread-safe
+ * @author David
+ *
+ */
+class VisitedPairs {
+
+	/**
+	 * Mention ids of the current block
+	 */
+	private SymbolTable mentionIds;
+	/**
+	 * Slots by event
+	 */
+	private int[] slots;
+	/**
+	 * Bits of the lower triangle including the diagonal
+	 */
+	private long[] bits;
+	/**
+	 * Number of words used by the current block
+	 */
+	private int used;
+
+	/**
+	 * No-argument constructor
+	 */
+	VisitedPairs () {
+		mentionIds = new SymbolTable(64);
+		slots = new int[64];
+		bits = new long[16];
+	}
+
+	/**
+	 * Empties the set and assigns slots to the mention ids of an event block
+	 * @param events events of the block
+	 */
+	void reset (List<Event> events) {
+		int n = events.size();
+		if (slots.length < n)
+			slots = new int[Math.max(n, slots.length * 2)];
+		mentionIds.clear();
+		for (int i = 0; i < n; i++)
+			slots[i] = mentionIds.intern(events.get(i).getId());
+		reset(mentionIds.size());
+	}
+
+	/**
+	 * Returns the slot of the mention id of an event
+	 * @param i index of the event in the block
+	 * @return slot
+	 */
+	int slot (int i) {
+		return slots[i];
+	}
+
+	/**
+	 * Empties the set and prepares it for <em>n</em> slots
+	 * @param n number of slots
+	 */
+	private void reset (int n) {
+		int words = (int) (((long) n * (n + 1) / 2 + 63) >>> 6);
+		// only clear the words used by the previous block
+		Arrays.fill(bits, 0, used, 0L);
+		if (bits.length < words)
+			bits = new long[Math.max(words, bits.length * 2)];
+		used = words;
+	}
+
+	/**
+	 * Returns whether a pair has been added
+	 * @param a first slot
+	 * @param b second slot
+	 * @return true if the pair {a, b} has been added
+	 */
+	boolean contains (int a, int b) {
+		long k = index(a, b);
+		return (bits[(int) (k >>> 6)] & (1L << k)) != 0;
+	}
+
+	/**
+	 * Adds a pair
+	 * @param a first slot
+	 * @param b second slot
+	 */
+	void add (int a, int b) {
+		long k = index(a, b);
+		bits[(int) (k >>> 6)] |= 1L << k;
+	}
+
+	/**
+	 * Returns the bit index of an unordered pair
+	 * @param a first slot
+	 * @param b second slot
+	 * @return bit index
+	 */
+	private static long index (int a, int b) {
+		if (a < b) {
+			int t = a;
+			a = b;
+			b = t;
+		}
+		return (long) a * (a + 1) / 2 + b;
+	}
+}
@@ -29,6 +29,10 @@ public class Event implements Serializable, Comparable<Event> {
 	 * Maximum event score as scored against a chain
 	 */
 	private double maxScore = 0.0;
+	/**
+	 * Symbol id of the typed dependency, only valid for the symbol table it was interned in
+	 */
+	private transient int typedDepId = -1;
 	
 	/**
 	 * No-argument constructor
@@ -195,6 +199,22 @@ public class Event implements Serializable, Comparable<Event> {
 		this.id = id;
 	}
 
+	/**
+	 * Returns the symbol id of the typed dependency
+	 * @return symbol id or -1 if the typed dependency has not been interned
+	 */
+	public int getTypedDepId () {
+		return typedDepId;
+	}
+
+	/**
+	 * Sets the symbol id of the typed dependency
+	 * @param id symbol id
+	 */
+	public void setTypedDepId (int id) {
+		typedDepId = id;
+	}
+
 	/**
 	 * toString method
 	 * @return string representation
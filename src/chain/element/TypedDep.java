@@ -118,6 +118,16 @@ public class TypedDep {
 		return sb.toString();
 	}
 	
+	/**
+	 * Returns this typed dependency as event, as it is read back from the buffer file
+	 * @return event with typed dependency, argument and mention id
+	 */
+	public Event toEvent () {
+		// if the dependency has an associated lemma, use lemma, else use word form
+		String dep_lemma = dep.lemma()==null?dep.word():dep.lemma();
+		return new Event(lemma + "-" + type, dep_lemma, mention);
+	}
+	
 	/**
 	 * Returns a copy of this typed dependency with the given type as type
 	 * @param type type
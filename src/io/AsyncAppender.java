@@ -0,0 +1,245 @@
+package io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writer that hands text over to a dedicated I/O thread
+ * <p>
+ * Any number of threads can append to an AsyncAppender. Appended text is put into a bounded
+ * queue, so producers block when the disk falls behind. The I/O thread writes the queued text
+ * in batches and flushes the underlying writer whenever the queue runs empty or a flush has been requested
+ * @author David
+ *
+ */
+public class AsyncAppender extends Writer {
+
+	/**
+	 * Maximum number of queued texts written in one batch
+	 */
+	private final static int maxBatch = 256;
+	/**
+	 * End marker, compared by identity
+	 */
+	private final static String EOF = new String("");
+	/**
+	 * Queue of texts to write
+	 */
+	private final BlockingQueue<String> queue;
+	/**
+	 * Underlying writer, only used by the I/O thread
+	 */
+	private final Writer out;
+	/**
+	 * I/O thread
+	 */
+	private final Thread thread;
+	/**
+	 * Number of texts appended
+	 */
+	private final AtomicLong appended;
+	/**
+	 * Number of texts written and number of texts written and flushed. Guarded by <em>progress</em>
+	 */
+	private long written, flushed;
+	/**
+	 * Number of appended texts a flush has been requested for. Guarded by <em>progress</em>
+	 */
+	private long flushRequested;
+	/**
+	 * Monitor for write progress
+	 */
+	private final Object progress = new Object();
+	/**
+	 * Highest observed queue depth
+	 */
+	private volatile int peakDepth;
+	/**
+	 * First error of the I/O thread
+	 */
+	private volatile IOException error;
+	/**
+	 * Flag to indicate that this appender has been closed
+	 */
+	private boolean closed;
+
+	/**
+	 * Constructor
+	 * @param out underlying writer
+	 * @param capacity maximum number of queued texts
+	 * @param name name of the I/O thread
+	 */
+	public AsyncAppender (Writer out, int capacity, String name) {
+		this.out = out;
+		queue = new ArrayBlockingQueue<String>(Math.max(1, capacity));
+		appended = new AtomicLong();
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run () {
+				drain();
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Appends text
+	 * <p>
+	 * Blocks while the queue is full
+	 * @param str text
+	 * @throws IOException if the I/O thread failed or this appender is closed
+	 */
+	@Override
+	public void write (String str) throws IOException {
+		check();
+		synchronized (this) {
+			if (closed)
+				throw new IOException("Appender closed");
+		}
+		try {
+			queue.put(str);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		appended.incrementAndGet();
+		int depth = queue.size();
+		if (depth > peakDepth)
+			peakDepth = depth;
+	}
+
+	/**
+	 * Appends characters
+	 * @param cbuf characters
+	 * @param off offset
+	 * @param len number of characters
+	 * @throws IOException if the I/O thread failed or this appender is closed
+	 */
+	@Override
+	public void write (char[] cbuf, int off, int len) throws IOException {
+		write(new String(cbuf, off, len));
+	}
+
+	/**
+	 * Waits until all text appended so far has been written and flushed
+	 * @throws IOException if the I/O thread failed
+	 */
+	@Override
+	public void flush () throws IOException {
+		long target = appended.get();
+		synchronized (progress) {
+			flushRequested = Math.max(flushRequested, target);
+			try {
+				while (flushed < target && error == null && thread.isAlive())
+					progress.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		check();
+	}
+
+	/**
+	 * Writes all queued text, stops the I/O thread and closes the underlying writer
+	 * @throws IOException if the I/O thread failed
+	 */
+	@Override
+	public void close () throws IOException {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		try {
+			queue.put(EOF);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		out.close();
+		check();
+	}
+
+	/**
+	 * Returns the number of queued texts
+	 * @return queue depth
+	 */
+	public int getQueueDepth () {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the highest number of queued texts observed so far
+	 * @return peak queue depth
+	 */
+	public int getPeakQueueDepth () {
+		return peakDepth;
+	}
+
+	/**
+	 * Rethrows the first error of the I/O thread
+	 * @throws IOException
+	 */
+	private void check () throws IOException {
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Main loop of the I/O thread
+	 */
+	private void drain () {
+		List<String> batch = new ArrayList<String>(maxBatch);
+		boolean done = false;
+		while (!done) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				// keep draining, the thread only ends at the end marker
+				continue;
+			}
+			queue.drainTo(batch, maxBatch - 1);
+			int n = 0;
+			for (String s : batch) {
+				if (s == EOF) {
+					done = true;
+					break;
+				}
+				n++;
+				// after an error, queued text is discarded so that producers never block forever
+				if (error == null) {
+					try {
+						out.write(s);
+					} catch (IOException e) {
+						error = e;
+					}
+				}
+			}
+			batch.clear();
+			synchronized (progress) {
+				written += n;
+				// batched flush
+				if (done || queue.isEmpty() || flushRequested > flushed) {
+					if (error == null) {
+						try {
+							out.flush();
+						} catch (IOException e) {
+							error = e;
+						}
+					}
+					flushed = written;
+				}
+				progress.notifyAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import chain.element.Entry;
+import chain.element.Event;
+import chain.element.EventBlock;
+
+/**
+ * Class used to read chain buffer files in the binary format
+ * <p>
+ * The format is described in {@link BinaryChainBufferWriter}
+ * @author David
+ *
+ */
+public class BinaryChainBufferReader implements ChainBufferReader {
+
+	/**
+	 * Input stream
+	 */
+	private DataInputStream in;
+	/**
+	 * Symbols defined so far
+	 */
+	private List<String> symbols;
+	/**
+	 * Buffer for strings
+	 */
+	private byte[] bytes;
+
+	/**
+	 * Constructor
+	 * @param f chain buffer file
+	 * @throws IOException if the file is not a binary chain buffer file
+	 */
+	public BinaryChainBufferReader (File f) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		symbols = new ArrayList<String>();
+		bytes = new byte[256];
+		try {
+			if (in.readInt() != BinaryChainBufferWriter.MAGIC)
+				throw new IOException(f.getName() + " is not a binary chain buffer file");
+			int version = in.readUnsignedByte();
+			if (version != BinaryChainBufferWriter.VERSION)
+				throw new IOException("Unsupported chain buffer version " + version);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns whether a file is a binary chain buffer file
+	 * @param f file
+	 * @return true if the file starts with the magic number
+	 * @throws IOException
+	 */
+	public static boolean isBinary (File f) throws IOException {
+		if (f.length() < 4)
+			return false;
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			return in.readInt() == BinaryChainBufferWriter.MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the next record of the file
+	 * @return next record or <b>null</b> if the end of the file has been reached
+	 * @throws IOException
+	 */
+	@Override
+	public Entry next () throws IOException {
+		while (true) {
+			int tag = in.read();
+			if (tag < 0)
+				return null;
+			if (tag == BinaryChainBufferWriter.TAG_SYMBOL) {
+				symbols.add(readString());
+			} else if (tag == BinaryChainBufferWriter.TAG_RECORD) {
+				// record length is only needed to skip records
+				readVarInt();
+				return readRecord();
+			} else {
+				throw new IOException("Corrupt chain buffer file, unknown tag " + tag);
+			}
+		}
+	}
+
+	/**
+	 * Skips records without decoding them
+	 * <p>
+	 * Symbols defined between the skipped records are still read
+	 * @param n number of records to skip
+	 * @return number of skipped records
+	 * @throws IOException
+	 */
+	@Override
+	public long skip (long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n) {
+			int tag = in.read();
+			if (tag < 0)
+				break;
+			if (tag == BinaryChainBufferWriter.TAG_SYMBOL) {
+				symbols.add(readString());
+			} else if (tag == BinaryChainBufferWriter.TAG_RECORD) {
+				int length = readVarInt();
+				if (in.skipBytes(length) != length)
+					throw new EOFException("Corrupt chain buffer file, truncated record");
+				skipped++;
+			} else {
+				throw new IOException("Corrupt chain buffer file, unknown tag " + tag);
+			}
+		}
+		return skipped;
+	}
+
+	/**
+	 * Reads all symbols of the file, skipping the records
+	 * @return symbols in order of their ids
+	 * @throws IOException
+	 */
+	public List<String> readSymbols () throws IOException {
+		skip(Long.MAX_VALUE);
+		return symbols;
+	}
+
+	/**
+	 * Reads a record
+	 * @return entry with one event block per chain
+	 * @throws IOException
+	 */
+	private Entry readRecord () throws IOException {
+		String id = readString();
+		Entry e = new Entry(id);
+		String[] mentions = new String[readVarInt()];
+		for (int i = 0; i < mentions.length; i++) {
+			// mention ids usually start with the document id
+			boolean prefixed = in.readUnsignedByte() == 1;
+			mentions[i] = prefixed ? id + readString() : readString();
+		}
+		int blocks = readVarInt();
+		for (int i = 0; i < blocks; i++) {
+			EventBlock eb = new EventBlock();
+			int events = readVarInt();
+			for (int j = 0; j < events; j++) {
+				String typedDep = symbols.get(readVarInt());
+				String argument = symbols.get(readVarInt());
+				eb.add(new Event(typedDep, argument, mentions[readVarInt()]));
+			}
+			e.addEvent(eb);
+		}
+		return e;
+	}
+
+	/**
+	 * Reads a string written as length and UTF-8 bytes
+	 * @return string
+	 * @throws IOException
+	 */
+	private String readString () throws IOException {
+		int length = readVarInt();
+		if (bytes.length < length)
+			bytes = new byte[Math.max(length, bytes.length * 2)];
+		in.readFully(bytes, 0, length);
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a non-negative int written in 7-bit groups
+	 * @return value
+	 * @throws IOException
+	 */
+	private int readVarInt () throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+		throw new IOException("Corrupt chain buffer file, malformed number");
+	}
+
+	/**
+	 * Closes the underlying file
+	 */
+	@Override
+	public void close () throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,257 @@
+package io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import util.SymbolTable;
+
+import chain.element.Entry;
+import chain.element.Event;
+import chain.element.EventBlock;
+
+/**
+ * Class used to write chain buffer files in the binary format
+ * <p>
+ * The file starts with a magic number and a version byte, followed by tagged items:
+ * <ul>
+ * <li><em>symbol</em>: a string that receives the next free symbol id</li>
+ * <li><em>record</em>: the byte length of the record, the document id, the mention ids of the
+ * document and the chains. Every event is written as symbol id of the typed dependency,
+ * symbol id of the argument and index of the mention id</li>
+ * </ul>
+ * Typed dependencies and arguments repeat across documents and are defined once per file, right
+ * before the first record that uses them. Mention ids are unique to a document and are stored in the record,
+ * without the document id they usually start with.
+ * Numbers are variable-length encoded, strings are UTF-8
+ * @author David
+ *
+ */
+public class BinaryChainBufferWriter implements Closeable, Flushable {
+
+	/**
+	 * Magic number <em>NCBF</em>
+	 */
+	final static int MAGIC = 0x4E434246;
+	/**
+	 * Format version
+	 */
+	final static int VERSION = 1;
+	/**
+	 * Item tags
+	 */
+	final static int TAG_SYMBOL = 1, TAG_RECORD = 2;
+	/**
+	 * Output stream
+	 */
+	private DataOutputStream out;
+	/**
+	 * Channel of the output file
+	 */
+	private FileChannel channel;
+	/**
+	 * Symbols defined in the file
+	 */
+	private SymbolTable symbols;
+	/**
+	 * Buffer for the record being encoded
+	 */
+	private ByteArrayOutputStream record;
+	private DataOutputStream recordOut;
+
+	/**
+	 * Constructor
+	 * <p>
+	 * Appends to an existing binary chain buffer file, or creates a new one
+	 * @param f chain buffer file
+	 * @param bufferSize buffer size in bytes
+	 * @throws IOException if the file exists and is not a binary chain buffer file
+	 */
+	public BinaryChainBufferWriter (File f, int bufferSize) throws IOException {
+		symbols = new SymbolTable();
+		boolean append = f.length() > 0;
+		if (append) {
+			// continue with the symbols of the existing file
+			BinaryChainBufferReader r = new BinaryChainBufferReader(f);
+			try {
+				for (String s : r.readSymbols())
+					symbols.intern(s);
+			} finally {
+				r.close();
+			}
+		}
+		FileOutputStream fos = new FileOutputStream(f, true);
+		channel = fos.getChannel();
+		out = new DataOutputStream(new BufferedOutputStream(fos, bufferSize));
+		if (!append) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+		}
+		record = new ByteArrayOutputStream();
+		recordOut = new DataOutputStream(record);
+	}
+
+	/**
+	 * Writes a record
+	 * @param e entry with one event block per chain
+	 * @throws IOException
+	 */
+	public void write (Entry e) throws IOException {
+		record.reset();
+		SymbolTable mentions = new SymbolTable(64);
+		List<EventBlock> blocks = e.getEventBlock();
+		// collect mention ids of the document
+		for (EventBlock eb : blocks) {
+			for (Event ev : eb.getEvents())
+				mentions.intern(ev.getId());
+		}
+		writeString(recordOut, e.getId());
+		writeVarInt(recordOut, mentions.size());
+		for (int i = 0; i < mentions.size(); i++) {
+			String m = mentions.get(i);
+			// 1: mention id starts with the document id, 0: full mention id
+			boolean prefixed = m.startsWith(e.getId());
+			recordOut.writeByte(prefixed ? 1 : 0);
+			writeString(recordOut, prefixed ? m.substring(e.getId().length()) : m);
+		}
+		writeVarInt(recordOut, blocks.size());
+		for (EventBlock eb : blocks) {
+			writeVarInt(recordOut, eb.getEvents().size());
+			for (Event ev : eb.getEvents()) {
+				writeVarInt(recordOut, symbol(ev.getTypedDep()));
+				writeVarInt(recordOut, symbol(ev.getMention()));
+				writeVarInt(recordOut, mentions.lookup(ev.getId()));
+			}
+		}
+		// new symbols have been written, now the record
+		out.writeByte(TAG_RECORD);
+		writeVarInt(out, record.size());
+		record.writeTo(out);
+	}
+
+	/**
+	 * Returns the id of a symbol, defining it in the file if it is new
+	 * @param s symbol
+	 * @return symbol id
+	 * @throws IOException
+	 */
+	private int symbol (String s) throws IOException {
+		int id = symbols.lookup(s);
+		if (id < 0) {
+			id = symbols.intern(s);
+			out.writeByte(TAG_SYMBOL);
+			writeString(out, s);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the position of the output file, i.e. the number of bytes on disk
+	 * @return position
+	 * @throws IOException
+	 */
+	public long position () throws IOException {
+		return channel.position();
+	}
+
+	/**
+	 * Flushes the output file
+	 */
+	@Override
+	public void flush () throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Flushes and closes the output file
+	 */
+	@Override
+	public void close () throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Writes a string as length and UTF-8 bytes
+	 * @param out output
+	 * @param s string
+	 * @throws IOException
+	 */
+	private static void writeString (DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Writes a non-negative int in 7-bit groups, least significant group first
+	 * @param out output
+	 * @param v value
+	 * @throws IOException
+	 */
+	static void writeVarInt (OutputStream out, int v) throws IOException {
+		while ((v & ~0x7F) != 0) {
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	/**
+	 * Converts a chain buffer file in the text format to the binary format
+	 * @param text chain buffer file in the text format
+	 * @param binary new binary chain buffer file
+	 * @return number of converted records
+	 * @throws IOException
+	 */
+	public static int convert (File text, File binary) throws IOException {
+		int n = 0;
+		TextChainBufferReader r = new TextChainBufferReader(text);
+		try {
+			BinaryChainBufferWriter w = new BinaryChainBufferWriter(binary, 1 << 16);
+			try {
+				Entry e;
+				while ((e = r.next()) != null) {
+					w.write(e);
+					n++;
+				}
+			} finally {
+				w.close();
+			}
+		} finally {
+			r.close();
+		}
+		return n;
+	}
+
+	/**
+	 * Converts a chain buffer file in the text format to the binary format
+	 * @param args text file, binary file
+	 */
+	public static void main (String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: BinaryChainBufferWriter <text buffer> <binary buffer>");
+			return;
+		}
+		File binary = new File(args[1]);
+		if (binary.exists()) {
+			System.err.println("File " + args[1] + " already exists!");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			int n = convert(new File(args[0]), binary);
+			System.err.println("Converted " + n + " records [" + (System.currentTimeMillis() - start) + " ms]");
+		} catch (IOException e) {
+			System.err.println("An exception occured:\n" + e.getMessage());
+		}
+	}
+}
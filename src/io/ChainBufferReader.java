@@ -0,0 +1,32 @@
+package io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import chain.element.Entry;
+
+/**
+ * Interface for readers of chain buffer files
+ * <p>
+ * A chain buffer file holds one record per document: the document id and its narrative chains.
+ * Every chain is read as an {@link chain.element.EventBlock}
+ * @author David
+ *
+ */
+public interface ChainBufferReader extends Closeable {
+
+	/**
+	 * Returns the next record of the file
+	 * @return next record or <b>null</b> if the end of the file has been reached
+	 * @throws IOException
+	 */
+	Entry next () throws IOException;
+
+	/**
+	 * Skips records without decoding them
+	 * @param n number of records to skip
+	 * @return number of skipped records, less than n if the end of the file has been reached
+	 * @throws IOException
+	 */
+	long skip (long n) throws IOException;
+}
@@ -0,0 +1,100 @@
+package io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Utility class used to split files into memory-mapped, newline-aligned byte ranges
+ * <p>
+ * Every range starts at the beginning of a line and ends after a line break
+ * (or at the end of the file), so ranges can be parsed independently of each other
+ * @author David
+ *
+ */
+public class MappedFile {
+
+	/**
+	 * Maximum size of a single range. A mapping cannot exceed 2 GB
+	 */
+	private final static long maxRangeSize = 1L << 30;
+
+	/**
+	 * Splits a file into newline-aligned ranges
+	 * @param fc file channel
+	 * @param parts desired number of ranges
+	 * @return list of ranges as <em>{start, end}</em>, end is exclusive
+	 * @throws IOException
+	 */
+	public static List<long[]> ranges (FileChannel fc, int parts) throws IOException {
+		long size = fc.size();
+		// never exceed the maximum mapping size
+		parts = (int) Math.max(parts, size / maxRangeSize + 1);
+		List<long[]> ranges = new ArrayList<long[]>();
+		long start = 0;
+		for (int k = 1; k <= parts && start < size; k++) {
+			long end = k == parts ? size : Math.max(start, nextLine(fc, size * k / parts));
+			if (end > start)
+				ranges.add(new long[] {start, end});
+			start = end;
+		}
+		return ranges;
+	}
+
+	/**
+	 * Maps a range of a file
+	 * @param fc file channel
+	 * @param range range as <em>{start, end}</em>
+	 * @return read-only buffer
+	 * @throws IOException
+	 */
+	public static MappedByteBuffer map (FileChannel fc, long[] range) throws IOException {
+		return fc.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+	}
+
+	/**
+	 * Waits for the result of a range task
+	 * @param task task
+	 * @return result
+	 * @throws IOException if the task failed with an IOException
+	 */
+	public static <T> T await (Future<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the position after the first line break at or after a position
+	 * @param fc file channel
+	 * @param pos position
+	 * @return position of the next line, or the file size
+	 * @throws IOException
+	 */
+	private static long nextLine (FileChannel fc, long pos) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+		while (true) {
+			buf.clear();
+			int n = fc.read(buf, pos);
+			if (n < 0)
+				return fc.size();
+			for (int i = 0; i < n; i++) {
+				if (buf.get(i) == '\n')
+					return pos + i + 1;
+			}
+			pos += n;
+		}
+	}
+}
@@ -1,37 +1,286 @@
 package io;
 
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerConfigurationException;
 import chain.element.Entry;
+import chain.element.Event;
+import chain.element.EventBlock;
 
 /**
  * Class used to write different output formats
+ * <p>
+ * Files are opened once, on the first write, and stay open until {@link #close()} is called.
+ * Writes are buffered, so {@link #flush()} must be called whenever the content has to be on disk.
+ * Content is always appended to existing files
  * @author David
  *
  */
-public class NCWriter {
+public class NCWriter implements Closeable, Flushable {
 	/**
-	 * Default path to output file
+	 * Default buffer size in characters
 	 */
-	private static String defaultPath = "./buffer";
+	private final static int defaultBufferSize = 1 << 16;
 	/**
-	 * Default path to error file
+	 * Path to output file
 	 */
-	private static String defaultErrorPath = "./bufferError";
+	private String defaultPath = "./buffer";
+	/**
+	 * Path to error file
+	 */
+	private String defaultErrorPath = "./bufferError";
+	/**
+	 * Open writers by path
+	 */
+	private Map<String, Writer> writers;
+	/**
+	 * Channels of the open writers and their positions when opened, by path
+	 */
+	private Map<String, FileChannel> channels;
+	private Map<String, Long> offsets;
+	/**
+	 * Bytes written to files that have been closed
+	 */
+	private long closedBytes;
+	/**
+	 * Highest queue depth of asynchronous files that have been closed
+	 */
+	private int closedPeakDepth;
+	/**
+	 * Buffer size of newly opened writers
+	 */
+	private int bufferSize = defaultBufferSize;
+	/**
+	 * Flag to indicate that files are written through a FileChannel
+	 */
+	private boolean useChannel;
+	/**
+	 * Queue capacity of asynchronous writers, 0 for synchronous writers
+	 */
+	private int queueCapacity;
+	/**
+	 * Flag to indicate that records are written in the binary format
+	 */
+	private boolean binary;
+	/**
+	 * Writer of binary records, opened on the first record
+	 */
+	private BinaryChainBufferWriter binaryWriter;
+	private long binaryOffset;
 
 	/**
 	 * No-argument constructor
 	 */
 	public NCWriter () {
+		writers = new HashMap<String, Writer>();
+		channels = new HashMap<String, FileChannel>();
+		offsets = new HashMap<String, Long>();
+	}
+
+	/**
+	 * Sets the buffer size of files opened from now on
+	 * <p>
+	 * Default value: 65536
+	 * @param size buffer size in characters
+	 */
+	public void setBufferSize (int size) {
+		bufferSize = Math.max(1, size);
+	}
+
+	/**
+	 * Sets whether files opened from now on are written through a FileChannel.
+	 * Characters are then encoded directly into a byte buffer of the buffer size
+	 * <p>
+	 * Default value: false
+	 * @param channel flag
+	 */
+	public void setUseChannel (boolean channel) {
+		useChannel = channel;
+	}
+
+	/**
+	 * Sets whether files opened from now on are written asynchronously
+	 * <p>
+	 * With a capacity greater than 0, every file gets an {@link AsyncAppender}
+	 * with its own I/O thread and a queue of the given capacity. Default value: 0
+	 * @param capacity maximum number of queued writes per file, 0 for synchronous writes
+	 */
+	public void setAsync (int capacity) {
+		queueCapacity = Math.max(0, capacity);
+	}
+
+	/**
+	 * Returns whether files opened from now on are written asynchronously
+	 * @return true if writes are asynchronous
+	 */
+	public boolean isAsync () {
+		return queueCapacity > 0;
+	}
+
+	/**
+	 * Sets whether records are written in the binary format
+	 * <p>
+	 * Binary records are always written synchronously. Default value: false
+	 * @param binary flag
+	 */
+	public void setBinary (boolean binary) {
+		this.binary = binary;
+	}
+
+	/**
+	 * Returns whether records are written in the binary format
+	 * @return true if records are binary
+	 */
+	public boolean isBinary () {
+		return binary;
+	}
+
+	/**
+	 * Opens a file for appending, or returns the writer of an already opened file
+	 * @param path path
+	 * @return writer
+	 * @throws IOException
+	 */
+	public synchronized Writer open (String path) throws IOException {
+		Writer w = writers.get(path);
+		if (w == null) {
+			FileOutputStream out = new FileOutputStream(new File(path), true);
+			FileChannel fc = out.getChannel();
+			if (useChannel) {
+				// replace malformed characters like FileWriter
+				w = Channels.newWriter(fc, Charset.defaultCharset().newEncoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE), bufferSize);
+			} else {
+				w = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()), bufferSize);
+			}
+			if (queueCapacity > 0)
+				w = new AsyncAppender(w, queueCapacity, "writer-" + new File(path).getName());
+			writers.put(path, w);
+			channels.put(path, fc);
+			offsets.put(path, fc.position());
+		}
+		return w;
+	}
+
+	/**
+	 * Appends text to a file
+	 * <p>
+	 * Only opening is synchronized, so a producer blocked by a full
+	 * queue does not block producers of other files
+	 * @param text text
+	 * @param path path
+	 * @throws IOException
+	 */
+	private void append (String text, String path) throws IOException {
+		open(path).write(text);
+	}
+
+	/**
+	 * Flushes all open files
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void flush () throws IOException {
+		for (Writer w : writers.values())
+			w.flush();
+		if (binaryWriter != null)
+			binaryWriter.flush();
+	}
+
+	/**
+	 * Flushes and closes all open files
+	 * <p>
+	 * Files are opened again on the next write
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void close () throws IOException {
+		IOException error = null;
+		for (Map.Entry<String, Writer> w : writers.entrySet()) {
+			try {
+				w.getValue().flush();
+				if (w.getValue() instanceof AsyncAppender)
+					closedPeakDepth = Math.max(closedPeakDepth, ((AsyncAppender) w.getValue()).getPeakQueueDepth());
+				closedBytes += channels.get(w.getKey()).position() - offsets.get(w.getKey());
+				w.getValue().close();
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		writers.clear();
+		channels.clear();
+		offsets.clear();
+		if (binaryWriter != null) {
+			try {
+				binaryWriter.flush();
+				closedBytes += binaryWriter.position() - binaryOffset;
+				binaryWriter.close();
+			} catch (IOException e) {
+				error = e;
+			}
+			binaryWriter = null;
+		}
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Returns the number of bytes written to disk so far
+	 * <p>
+	 * Text that is still buffered or queued is not counted
+	 * @return bytes written
+	 * @throws IOException
+	 */
+	public synchronized long getBytesWritten () throws IOException {
+		long bytes = closedBytes;
+		for (Map.Entry<String, FileChannel> c : channels.entrySet())
+			bytes += c.getValue().position() - offsets.get(c.getKey());
+		if (binaryWriter != null)
+			bytes += binaryWriter.position() - binaryOffset;
+		return bytes;
+	}
 
+	/**
+	 * Returns the number of queued writes of all asynchronous files
+	 * @return queue depth
+	 */
+	public synchronized int getQueueDepth () {
+		int depth = 0;
+		for (Writer w : writers.values()) {
+			if (w instanceof AsyncAppender)
+				depth += ((AsyncAppender) w).getQueueDepth();
+		}
+		return depth;
+	}
+
+	/**
+	 * Returns the highest queue depth observed in any asynchronous file
+	 * @return peak queue depth
+	 */
+	public synchronized int getPeakQueueDepth () {
+		int peak = closedPeakDepth;
+		for (Writer w : writers.values()) {
+			if (w instanceof AsyncAppender)
+				peak = Math.max(peak, ((AsyncAppender) w).getPeakQueueDepth());
+		}
+		return peak;
 	}
 
 	/**
@@ -59,9 +308,47 @@ public class NCWriter {
 		} else {
 			path = defaultPath;
 		}
-		BufferedWriter bw = new BufferedWriter(new FileWriter(new File(path), true));
-		bw.write(text);
-		bw.close();
+		append(text, path);
+	}
+
+	/**
+	 * Writes a record to output file
+	 * <p>Always appends content to file. Depending on {@link #setBinary(boolean)},
+	 * the record is written in the text or in the binary format
+	 * @param e entry with one event block per chain
+	 * @throws IOException
+	 */
+	public void writeEntry (Entry e) throws IOException {
+		if (!binary) {
+			write(toLine(e));
+			return;
+		}
+		synchronized (this) {
+			if (binaryWriter == null) {
+				binaryWriter = new BinaryChainBufferWriter(new File(defaultPath), bufferSize);
+				binaryOffset = binaryWriter.position();
+			}
+			binaryWriter.write(e);
+		}
+	}
+
+	/**
+	 * Formats a record in the text format
+	 * @param e entry
+	 * @return line
+	 */
+	private static String toLine (Entry e) {
+		StringBuilder sb = new StringBuilder(e.getId());
+		sb.append(";");
+		for (EventBlock eb : e.getEventBlock()) {
+			for (Event ev : eb.getEvents()) {
+				sb.append(ev.getTypedDep()).append("( ").append(ev.getMention()).append(" ) [ ")
+					.append(ev.getId()).append(" ]:");
+			}
+			sb.append("&!&");
+		}
+		sb.append("\n");
+		return sb.toString();
 	}
 
 	/**
@@ -76,9 +363,7 @@ public class NCWriter {
 		} else {
 			path = defaultPath + "_pairs";
 		}
-		BufferedWriter bw = new BufferedWriter(new FileWriter(new File(path), true));
-		bw.write(pair);
-		bw.close();
+		append(pair, path);
 	}
 	
 	/**
@@ -104,9 +389,7 @@ public class NCWriter {
 	 * @throws IOException
 	 */
 	public void writeError (String text) throws IOException {
-		BufferedWriter bw = new BufferedWriter(new FileWriter(new File(defaultErrorPath), true));
-		bw.write(text);
-		bw.close();
+		append(text, defaultErrorPath);
 	}
 
 	/**
@@ -144,4 +427,12 @@ public class NCWriter {
 	public String getPath () {
 		return defaultPath;
 	}
+
+	/**
+	 * Returns the path to error file
+	 * @return path to error file as string
+	 */
+	public String getErrorPath () {
+		return defaultErrorPath;
+	}
 }
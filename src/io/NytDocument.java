@@ -0,0 +1,44 @@
+package io;
+
+/**
+ * Class representing a single document of a NYT-formatted text file
+ * @author David
+ *
+ */
+public class NytDocument {
+
+	/**
+	 * Document id
+	 */
+	private String id;
+	/**
+	 * Cleaned document text
+	 */
+	private String text;
+
+	/**
+	 * Constructor
+	 * @param id document id
+	 * @param text cleaned document text
+	 */
+	public NytDocument (String id, String text) {
+		this.id = id;
+		this.text = text;
+	}
+
+	/**
+	 * Returns the id of this document
+	 * @return id
+	 */
+	public String getId () {
+		return id;
+	}
+
+	/**
+	 * Returns the cleaned text of this document
+	 * @return text
+	 */
+	public String getText () {
+		return text;
+	}
+}
@@ -0,0 +1,212 @@
+package io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Class used to stream the documents of a NYT-formatted text file
+ * <p>
+ * The file is scanned character by character and documents are returned one
+ * at a time, so memory use is bounded by the largest document instead of the file size.
+ * As in {@link Reader#readNytFile(File)}, lines are joined by a space
+ * @author David
+ *
+ */
+public class NytDocumentReader implements Closeable {
+
+	/**
+	 * Scanner states
+	 */
+	private final static int OUTSIDE = 0, HEADER = 1, DOC = 2, TEXT = 3;
+	/**
+	 * Tags
+	 */
+	private final static String docStart = "<DOC", docEnd = "</DOC>", textStart = "<TEXT>", textEnd = "</TEXT>";
+	/**
+	 * Line reader
+	 */
+	private BufferedReader br;
+	/**
+	 * Current scanner state
+	 */
+	private int state;
+	/**
+	 * Window of recently scanned characters
+	 */
+	private StringBuilder window;
+	/**
+	 * Document header or text
+	 */
+	private StringBuilder buffer;
+	/**
+	 * Id of the current document
+	 */
+	private String id;
+	/**
+	 * Cleaned text of the current document
+	 */
+	private String text;
+	/**
+	 * Text cleaner
+	 */
+	private NytTextCleaner cleaner;
+	/**
+	 * Current line and position in line
+	 */
+	private String line;
+	private int pos;
+
+	/**
+	 * Constructor
+	 * @param f NYT file
+	 * @throws IOException
+	 */
+	public NytDocumentReader (File f) throws IOException {
+		br = new BufferedReader(new FileReader(f));
+		window = new StringBuilder();
+		buffer = new StringBuilder();
+		cleaner = new NytTextCleaner();
+		state = OUTSIDE;
+	}
+
+	/**
+	 * Returns the next document of the file
+	 * @return next document or <b>null</b> if the end of the file has been reached
+	 * @throws IOException
+	 */
+	public NytDocument next () throws IOException {
+		while (true) {
+			// fetch next line
+			if (line == null) {
+				line = br.readLine();
+				if (line == null)
+					return null;
+				// join lines by space
+				line += " ";
+				pos = 0;
+			}
+			while (pos < line.length()) {
+				NytDocument d = scan(line.charAt(pos++));
+				if (d != null)
+					return d;
+			}
+			line = null;
+		}
+	}
+
+	/**
+	 * Advances the scanner by one character
+	 * @param c character
+	 * @return finished document or <b>null</b>
+	 */
+	private NytDocument scan (char c) {
+		switch (state) {
+		case OUTSIDE:
+			window.append(c);
+			// <DOC\sid=
+			int l = window.length();
+			if (l >= 8 && endsWith(window, "id=") && Character.isWhitespace(window.charAt(l-4))
+					&& window.substring(l-8, l-4).equals(docStart)) {
+				state = HEADER;
+				buffer.setLength(0);
+			} else if (l > 16) {
+				window.delete(0, l-8);
+			}
+			break;
+		case HEADER:
+			if (c == '>') {
+				id = parseId(buffer);
+				text = null;
+				state = DOC;
+				window.setLength(0);
+			} else {
+				buffer.append(c);
+			}
+			break;
+		case DOC:
+			window.append(c);
+			if (endsWith(window, textStart) && text == null) {
+				state = TEXT;
+				buffer.setLength(0);
+				buffer.append(textStart);
+			} else if (endsWith(window, docEnd)) {
+				state = OUTSIDE;
+				window.setLength(0);
+				// documents without text are skipped
+				if (text != null)
+					return new NytDocument(id, text);
+			} else if (window.length() > 16) {
+				window.delete(0, window.length()-8);
+			}
+			break;
+		case TEXT:
+			buffer.append(c);
+			// at least one character between the tags
+			if (buffer.length() > textStart.length() + textEnd.length() && endsWith(buffer, textEnd)) {
+				text = cleaner.clean(buffer);
+				buffer.setLength(0);
+				state = DOC;
+				window.setLength(0);
+			}
+			break;
+		default: break;
+		}
+		return null;
+	}
+
+	/**
+	 * Parses the document id from the document header
+	 * <p>
+	 * The id is the run of letters, digits, underscores and periods following <em>id="</em>.
+	 * If there is no id, a fall-back id is generated
+	 * @param header document header without <em>&lt;DOC id=</em>
+	 * @return id
+	 */
+	private String parseId (StringBuilder header) {
+		int i = 1;
+		if (header.length() > 0 && header.charAt(0) == '"') {
+			while (i < header.length() && isIdChar(header.charAt(i)))
+				i++;
+		}
+		if (i > 1)
+			return header.substring(1, i);
+		return Reader.nextFallbackId();
+	}
+
+	/**
+	 * Returns whether a character can be part of a document id
+	 * @param c character
+	 * @return true if c matches [\w\d\.]
+	 */
+	private static boolean isIdChar (char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '.';
+	}
+
+	/**
+	 * Helper method to check the end of a buffer
+	 * @param sb buffer
+	 * @param s suffix
+	 * @return whether sb ends with s
+	 */
+	private static boolean endsWith (StringBuilder sb, String s) {
+		int off = sb.length() - s.length();
+		if (off < 0)
+			return false;
+		for (int i = 0; i < s.length(); i++) {
+			if (sb.charAt(off + i) != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Closes the underlying file
+	 */
+	@Override
+	public void close () throws IOException {
+		br.close();
+	}
+}
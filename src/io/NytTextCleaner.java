@@ -0,0 +1,159 @@
+package io;
+
+/**
+ * Class used to clean the text of NYT documents in a single pass
+ * <p>
+ * Produces the same output as the following chain of regular expressions,
+ * applied in this order:
+ * <ol>
+ * <li><em>&lt;.+?&gt;</em> is replaced by a space (tags)</li>
+ * <li><em>''</em> is replaced by <em>"</em></li>
+ * <li><em>``</em> is replaced by <em>"</em></li>
+ * <li><em>".+?"</em> is deleted (quoted content)</li>
+ * </ol>
+ * The output buffer is reused between calls. A cleaner is not thread-safe
+ * @author David
+ *
+ */
+public class NytTextCleaner {
+
+	/**
+	 * Output buffer
+	 */
+	private StringBuilder out;
+	/**
+	 * Character held back by the quote normalization, 0 if none
+	 */
+	private char pending;
+	/**
+	 * Position of the opening quote in the output buffer, -1 if none
+	 */
+	private int openQuote;
+	/**
+	 * Start of the last search for a closing bracket
+	 */
+	private int closeFrom;
+	/**
+	 * Position of the first closing bracket or line terminator at or after <em>closeFrom</em>
+	 */
+	private int closeAt;
+
+	/**
+	 * No-argument constructor
+	 */
+	public NytTextCleaner () {
+		out = new StringBuilder();
+	}
+
+	/**
+	 * Cleans a text
+	 * @param text text
+	 * @return cleaned text
+	 */
+	public String clean (CharSequence text) {
+		out.setLength(0);
+		pending = 0;
+		openQuote = -1;
+		closeFrom = -1;
+		closeAt = -1;
+		int n = text.length();
+		int i = 0;
+		while (i < n) {
+			char c = text.charAt(i);
+			if (c == '<' && i+1 < n && !isLineTerminator(text.charAt(i+1))) {
+				// a tag needs at least one character before its closing bracket
+				int k = findClose(text, i+2);
+				if (k < n && text.charAt(k) == '>') {
+					// delete tag
+					quote(' ');
+					i = k+1;
+					continue;
+				}
+			}
+			quote(c);
+			i++;
+		}
+		// flush held back character
+		if (pending != 0)
+			delete(pending);
+		return out.toString();
+	}
+
+	/**
+	 * Finds the first closing bracket or line terminator at or after <em>from</em>
+	 * <p>
+	 * The result of the last search is reused, so that cleaning stays linear
+	 * @param text text
+	 * @param from start position
+	 * @return position or the length of the text if there is none
+	 */
+	private int findClose (CharSequence text, int from) {
+		if (from >= closeFrom && from <= closeAt)
+			return closeAt;
+		closeFrom = from;
+		closeAt = from;
+		while (closeAt < text.length()) {
+			char c = text.charAt(closeAt);
+			if (c == '>' || isLineTerminator(c))
+				break;
+			closeAt++;
+		}
+		return closeAt;
+	}
+
+	/**
+	 * Quote normalization step
+	 * <p>
+	 * Replaces <em>''</em> and <em>``</em> by <em>"</em>
+	 * @param c next character
+	 */
+	private void quote (char c) {
+		if (pending != 0) {
+			char p = pending;
+			pending = 0;
+			if (c == p) {
+				delete('"');
+				return;
+			}
+			delete(p);
+		}
+		if (c == '\'' || c == '`')
+			pending = c;
+		else
+			delete(c);
+	}
+
+	/**
+	 * Quoted content deletion step
+	 * <p>
+	 * Deletes everything from an opening quote to the next closing quote
+	 * on the same line, with at least one character in between
+	 * @param c next character
+	 */
+	private void delete (char c) {
+		if (c == '"') {
+			if (openQuote < 0) {
+				openQuote = out.length();
+			} else if (out.length() > openQuote+1) {
+				// delete quoted content
+				out.setLength(openQuote);
+				openQuote = -1;
+				return;
+			}
+		} else if (isLineTerminator(c)) {
+			openQuote = -1;
+		}
+		out.append(c);
+	}
+
+	/**
+	 * Returns whether a character is a line terminator
+	 * <p>
+	 * Line terminators are not matched by <em>.</em> in regular expressions
+	 * @param c character
+	 * @return true if c is a line terminator
+	 */
+	private static boolean isLineTerminator (char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+}
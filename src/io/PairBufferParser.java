@@ -0,0 +1,360 @@
+package io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import util.LongDoubleMap;
+import util.SymbolTable;
+
+import chain.element.Event;
+
+/**
+ * Class used to parse pair buffer lines without regular expressions
+ * <p>
+ * Lines are tokenized directly on the encoded bytes. Typed dependencies and
+ * mentions are interned, so only the PMI value is decoded into a new String per line.
+ * A line has the format<br/>
+ * <em>typedDep1 \t typedDep2 \t pmi | (mention) [id] : (mention) [id] |</em>
+ * @author David
+ *
+ */
+public class PairBufferParser {
+
+	/**
+	 * Flag to indicate that full preposition information should be used
+	 */
+	private boolean fullPrep;
+	/**
+	 * Typed dependencies and mentions
+	 */
+	private SymbolTable symbols;
+	/**
+	 * Dependency of each typed dependency symbol, as returned by {@link Event#getDependency(boolean)}
+	 */
+	private List<String> dependencies;
+	/**
+	 * List of events
+	 */
+	private List<Event> events;
+	/**
+	 * PMI by pair of typed dependency symbols
+	 */
+	private LongDoubleMap pmis;
+	/**
+	 * Dependency pool
+	 */
+	private List<String> dependencyPool;
+	/**
+	 * Set view of the dependency pool
+	 */
+	private Set<String> dependencySet;
+	/**
+	 * Number of malformed lines
+	 */
+	private int skipped;
+
+	/**
+	 * Constructor
+	 * @param fullPrep flag to indicate that full preposition information should be used
+	 */
+	public PairBufferParser (boolean fullPrep) {
+		this.fullPrep = fullPrep;
+		symbols = new SymbolTable();
+		dependencies = new ArrayList<String>();
+		events = new ArrayList<Event>();
+		pmis = new LongDoubleMap(1024);
+		dependencyPool = new ArrayList<String>();
+		dependencySet = new HashSet<String>();
+	}
+
+	/**
+	 * Parses all complete lines in the given range
+	 * <p>
+	 * Uses absolute positions, the position of the buffer is not changed
+	 * @param buf buffer
+	 * @param from first byte
+	 * @param to end of range (exclusive)
+	 * @return end of the last complete line, i.e. the first byte not parsed
+	 */
+	public int parse (ByteBuffer buf, int from, int to) {
+		int start = from;
+		for (int i = from; i < to; i++) {
+			if (buf.get(i) == '\n') {
+				int end = i;
+				// ignore carriage return
+				if (end > start && buf.get(end-1) == '\r')
+					end--;
+				parseLine(buf, start, end);
+				start = i+1;
+			}
+		}
+		return start;
+	}
+
+	/**
+	 * Parses a single line
+	 * @param buf buffer
+	 * @param start first byte of the line
+	 * @param end end of the line (exclusive)
+	 */
+	public void parseLine (ByteBuffer buf, int start, int end) {
+		// ignore headers and empty lines
+		int bar = indexOf(buf, start, end, '|');
+		if (bar < 0)
+			return;
+		// sp[0] = typed dep 1, sp[1] = typed dep 2, sp[2] = pmi | mentions |
+		int tab1 = indexOf(buf, start, end, '\t');
+		int tab2 = tab1 < 0 ? -1 : indexOf(buf, tab1+1, end, '\t');
+		if (tab2 < 0) {
+			skipped++;
+			return;
+		}
+		int end2 = indexOf(buf, tab2+1, end, '\t');
+		if (end2 < 0)
+			end2 = end;
+		// pm[0] = pmi, pm[1] = mentions
+		int bar1 = indexOf(buf, tab2+1, end2, '|');
+		if (bar1 < 0) {
+			skipped++;
+			return;
+		}
+		int bar2 = indexOf(buf, bar1+1, end2, '|');
+		if (bar2 < 0)
+			bar2 = end2;
+		// mention is twice the same in one row, hence retrieval of only one is enough
+		int mention = findMention(buf, bar1+1, bar2);
+		if (mention < 0) {
+			skipped++;
+			return;
+		}
+		double pmi = Double.parseDouble(decode(buf, tab2+1, bar1));
+		int td1 = internTypedDep(buf, start, tab1);
+		int td2 = internTypedDep(buf, tab1+1, tab2);
+		add(td1, td2, mention, pmi);
+	}
+
+	/**
+	 * Appends the results of a parser that parsed the lines following the lines of this parser
+	 * <p>
+	 * Merging the parsers of consecutive ranges in file order yields the same
+	 * events, PMI table and dependency pool as parsing the whole file at once
+	 * @param other parser of the next range
+	 */
+	public void merge (PairBufferParser other) {
+		events.addAll(other.events);
+		// map symbol ids of the other parser to ids of this parser
+		int[] ids = new int[other.symbols.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = symbols.intern(other.symbols.get(i));
+		for (long key : other.pmis.keys()) {
+			int td1 = ids[(int) (key >>> 32)];
+			int td2 = ids[(int) key];
+			pmis.put(((long) td1 << 32) | td2, other.pmis.get(key, 0.0));
+		}
+		for (String d : other.dependencyPool)
+			addDependencyToPool(d);
+		skipped += other.skipped;
+	}
+
+	/**
+	 * Adds the events of a parsed line
+	 * @param td1 typed dependency 1
+	 * @param td2 typed dependency 2
+	 * @param mention mention
+	 * @param pmi pmi
+	 */
+	private void add (int td1, int td2, int mention, double pmi) {
+		String m = symbols.get(mention);
+		Event e1 = new Event(symbols.get(td1), m, "");
+		Event e2 = new Event(symbols.get(td2), m, "");
+		events.add(e1);
+		events.add(e2);
+		pmis.put(((long) td1 << 32) | td2, pmi);
+		addDependencyToPool(dependency(td1));
+		addDependencyToPool(dependency(td2));
+	}
+
+	/**
+	 * Interns a typed dependency
+	 * <p>
+	 * Without full preposition information, prepositional dependencies
+	 * are cut off at the first underscore (e.g. <em>look-p_at</em> becomes <em>look-p</em>)
+	 * @param buf buffer
+	 * @param from first byte
+	 * @param to end (exclusive)
+	 * @return symbol id
+	 */
+	private int internTypedDep (ByteBuffer buf, int from, int to) {
+		if (!fullPrep && contains(buf, from, to, 'p', '_'))
+			to = indexOf(buf, from, to, '_');
+		return symbols.intern(buf, from, to - from);
+	}
+
+	/**
+	 * Returns the dependency of a typed dependency symbol
+	 * @param td symbol id
+	 * @return dependency
+	 */
+	private String dependency (int td) {
+		while (dependencies.size() <= td)
+			dependencies.add(null);
+		String d = dependencies.get(td);
+		if (d == null) {
+			d = new Event(symbols.get(td), "", "").getDependency(fullPrep);
+			dependencies.set(td, d);
+		}
+		return d;
+	}
+
+	/**
+	 * Finds the mention in a range and interns it
+	 * <p>
+	 * The mention is the first sequence of letters, digits and the characters
+	 * <em>_'()*+,-.</em> enclosed in parentheses
+	 * @param buf buffer
+	 * @param from first byte
+	 * @param to end (exclusive)
+	 * @return symbol id or -1 if there is no mention
+	 */
+	private int findMention (ByteBuffer buf, int from, int to) {
+		for (int p = from; p < to; p++) {
+			if (buf.get(p) != '(')
+				continue;
+			for (int q = p+1; q < to; q++) {
+				byte b = buf.get(q);
+				// the closing parenthesis needs at least one character before it
+				if (b == ')' && q > p+1)
+					return symbols.intern(buf, p+1, q-p-1);
+				if (!isMentionByte(b))
+					break;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether a byte can be part of a mention
+	 * @param b byte
+	 * @return true if b matches [\w'-\.]
+	 */
+	private static boolean isMentionByte (byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || (b >= '\'' && b <= '.');
+	}
+
+	/**
+	 * Helper method to retain only unique elements
+	 * @param dependency dependency to add
+	 */
+	private void addDependencyToPool (String dependency) {
+		if (dependencySet.add(dependency))
+			dependencyPool.add(dependency);
+	}
+
+	/**
+	 * Returns the index of a byte in a range
+	 * @param buf buffer
+	 * @param from first byte
+	 * @param to end (exclusive)
+	 * @param b byte
+	 * @return index or -1
+	 */
+	private static int indexOf (ByteBuffer buf, int from, int to, char b) {
+		for (int i = from; i < to; i++) {
+			if (buf.get(i) == b)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether a range contains two consecutive bytes
+	 * @param buf buffer
+	 * @param from first byte
+	 * @param to end (exclusive)
+	 * @param b1 first byte
+	 * @param b2 second byte
+	 * @return true if the range contains b1 followed by b2
+	 */
+	private static boolean contains (ByteBuffer buf, int from, int to, char b1, char b2) {
+		for (int i = from; i < to-1; i++) {
+			if (buf.get(i) == b1 && buf.get(i+1) == b2)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Decodes an ASCII range
+	 * @param buf buffer
+	 * @param from first byte
+	 * @param to end (exclusive)
+	 * @return String
+	 */
+	private static String decode (ByteBuffer buf, int from, int to) {
+		char[] c = new char[to - from];
+		for (int i = from; i < to; i++)
+			c[i - from] = (char) (buf.get(i) & 0xFF);
+		return new String(c);
+	}
+
+	/**
+	 * Returns all parsed events
+	 * @return events
+	 */
+	public List<Event> getEvents () {
+		return events;
+	}
+
+	/**
+	 * Returns the parsed PMI table
+	 * <p>
+	 * Keys are the concatenated typed dependencies, the last value read for a pair wins
+	 * @return pmi table
+	 */
+	public Map<String, Double> getTable () {
+		Map<String, Double> table = new HashMap<String, Double>(pmis.size() * 2);
+		for (long key : pmis.keys())
+			table.put(symbols.get((int) (key >>> 32)) + symbols.get((int) key), pmis.get(key, 0.0));
+		return table;
+	}
+
+	/**
+	 * Returns the parsed PMI values by pair of typed dependency symbols
+	 * <p>
+	 * Keys hold the id of the first typed dependency in the upper and the id of the second one
+	 * in the lower 32 bits, see {@link #getSymbols()}
+	 * @return pmi values
+	 */
+	public LongDoubleMap getPmis () {
+		return pmis;
+	}
+
+	/**
+	 * Returns the symbols of the typed dependencies and mentions
+	 * @return symbols
+	 */
+	public SymbolTable getSymbols () {
+		return symbols;
+	}
+
+	/**
+	 * Returns the parsed dependencies
+	 * @return dependencies
+	 */
+	public List<String> getDependencyPool () {
+		return dependencyPool;
+	}
+
+	/**
+	 * Returns the number of malformed lines that were skipped
+	 * @return number of skipped lines
+	 */
+	public int getSkipped () {
+		return skipped;
+	}
+}
@@ -7,12 +7,19 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import util.LongDoubleMap;
+import util.SymbolTable;
 
 import chain.element.Entry;
 import chain.element.Event;
@@ -24,10 +31,6 @@ import chain.element.Event;
  */
 public class Reader {
 
-	/**
-	 * Patterns
-	 */
-	private Pattern _doc, _text, _id;
 	/**
 	 * Delimiter between document id and text. Split on this delimiter to retrieve id and text. Must be canonical (unique)
 	 */
@@ -36,10 +39,18 @@ public class Reader {
 	 * Fall-back prefix for id generation
 	 */
 	private final static String fallbackPrefix = "fbprefix";
+	/**
+	 * Size of the chunks in which pair buffer files are read
+	 */
+	private final static int chunkSize = 1 << 20;
 	/**
 	 * Fall-back counter for id generation
 	 */
 	private static int counter;
+	/**
+	 * Number of threads used to parse pair buffer files
+	 */
+	private int threads = 1;
 	/**
 	 * List of events for retrieval by SchemaBuilder
 	 */
@@ -48,6 +59,10 @@ public class Reader {
 	 * PMI lookup table for retrieval by SchemaBuilder
 	 */
 	private Map<String, Double> table;
+	/**
+	 * Parser of the last pair buffer file, the PMI table is built from it on demand
+	 */
+	private PairBufferParser parser;
 	/**
 	 * Dependency pool for retrieval by SchemaBuilder
 	 */
@@ -57,9 +72,6 @@ public class Reader {
 	 * No-argument constructor
 	 */
 	public Reader () {
-		_doc = Pattern.compile("<DOC\\sid=.+?</DOC>");
-		_text = Pattern.compile("<TEXT>.+?</TEXT>");
-		_id = Pattern.compile("(?<=<DOC\\sid=\")[\\w\\d\\.]+(?=.+?>)");
 		events = new ArrayList<Event>();
 		table = new HashMap<String, Double>();
 		dependencyPool = new ArrayList<String>();
@@ -110,7 +122,8 @@ public class Reader {
 	/**
 	 * Method for extracting text from a NYT-formatted text file
 	 * <p>
-	 * Only applicable to single files
+	 * Only applicable to single files. Prefer {@link #openNytFile(File)}
+	 * for large files, this method holds all documents of the file in memory
 	 * @param f NYT file
 	 * @return list of String
 	 * @throws IOException
@@ -118,53 +131,58 @@ public class Reader {
 	public List<String> readNytFile (File f) throws IOException {
 		// text buffer
 		List <String> buffer = new ArrayList<String>();
-		// file reading loop
-		BufferedReader br = new BufferedReader(new FileReader(f));
-		String l = "";
-		StringBuilder sb = new StringBuilder();
-		while ((l = br.readLine())!=null) 
-			sb.append(l).append(" ");
-		// close reader
-		br.close();
-		String t = sb.toString();
-		// match creation
-		Matcher m_doc = _doc.matcher(t);
-		Matcher m_text = _text.matcher(t);
-		// for every text found inside file
-		while (m_doc.find()) {
-			// id buffer
-			String id = "";
-			// document text
-			String _local = m_doc.group();
-			// get id if possible
-			Matcher m_id = _id.matcher(_local);
-			if (m_id.find())
-				id = m_id.group();
-			// generate fall-back id
-			else
-				id = fallbackPrefix  + counter++;
-			// get inner text
-			if (m_text.find()) {
-				// locally store text
-				String _intermed = m_text.group();
-				// delete remaining tags
-				_intermed = _intermed.replaceAll("<.+?>", " ");
-				// replace quotes
-				_intermed = _intermed.replaceAll("''", "\"");
-				_intermed = _intermed.replaceAll("``", "\"");
-				// delete quoted content
-				_intermed = _intermed.replaceAll("\".+?\"", "");
-				// prepend id
-				_intermed = id + canonicalDelimiter + _intermed;
-				// add text to buffer
-				buffer.add(_intermed);
+		// document reader
+		NytDocumentReader r = openNytFile(f);
+		try {
+			NytDocument d;
+			// for every text found inside file
+			while ((d = r.next())!=null) {
+				// prepend id and add text to buffer
+				buffer.add(d.getId() + canonicalDelimiter + d.getText());
 			}
-		}	
+		} finally {
+			// close reader
+			r.close();
+		}
 		return buffer;
 	}
+
+	/**
+	 * Method for streaming the documents of a NYT-formatted text file
+	 * <p>
+	 * Documents are read one at a time. The returned reader has to be closed
+	 * @param f NYT file
+	 * @return document reader
+	 * @throws IOException
+	 */
+	public NytDocumentReader openNytFile (File f) throws IOException {
+		return new NytDocumentReader(f);
+	}
+
+	/**
+	 * Generates a fall-back id for documents without id
+	 * @return fall-back id
+	 */
+	static synchronized String nextFallbackId () {
+		return fallbackPrefix + counter++;
+	}
+	
+	/**
+	 * Opens a chain buffer file in the text or binary format
+	 * @param f chain buffer file
+	 * @return chain buffer reader
+	 * @throws IOException
+	 */
+	public ChainBufferReader openChainBuffer (File f) throws IOException {
+		if (BinaryChainBufferReader.isBinary(f))
+			return new BinaryChainBufferReader(f);
+		return new TextChainBufferReader(f);
+	}
 	
 	/**
 	 * Method to read pair buffer file for SchemaBuilder
+	 * <p>
+	 * The file is read in chunks and tokenized by a {@link PairBufferParser}
 	 * @param path path to pair buffer file
 	 * @param fullPrep flag to indicate that full preposition information should be used
 	 * @throws IOException 
@@ -172,50 +190,109 @@ public class Reader {
 	public void readPairBuffer (String path, boolean fullPrep) throws IOException {
 		if (path.equals(""))
 			return;
-		BufferedReader br = new BufferedReader(new FileReader(new File(path)));
-		String l = "";
-		while ((l = br.readLine())!=null) {
-			// ignore headers and empty lines
-			if (!l.contains("|"))
+		PairBufferParser parser;
+		FileChannel fc = new FileInputStream(path).getChannel();
+		try {
+			parser = threads > 1 ? readMapped(fc, fullPrep) : readChunked(fc, fullPrep);
+		} finally {
+			fc.close();
+		}
+		if (parser.getSkipped() > 0)
+			System.err.println("Skipped " + parser.getSkipped() + " malformed lines");
+		events = parser.getEvents();
+		table = null;
+		this.parser = parser;
+		dependencyPool = parser.getDependencyPool();
+	}
+	
+	/**
+	 * Parses a pair buffer file sequentially in chunks
+	 * @param fc file channel
+	 * @param fullPrep flag to indicate that full preposition information should be used
+	 * @return parser
+	 * @throws IOException
+	 */
+	private PairBufferParser readChunked (FileChannel fc, boolean fullPrep) throws IOException {
+		PairBufferParser parser = new PairBufferParser(fullPrep);
+		ByteBuffer buf = ByteBuffer.allocate(chunkSize);
+		while (fc.read(buf) >= 0) {
+			int end = parser.parse(buf, 0, buf.position());
+			// grow buffer for lines longer than the buffer
+			if (end == 0 && !buf.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(buf.capacity() * 2);
+				buf.flip();
+				larger.put(buf);
+				buf = larger;
 				continue;
-			String[] sp = l.split("\t");
-			// sp[0] = typed dep 1
-			// sp[1] = typed dep 2
-			String[] pm = sp[2].split("\\|");
-			//System.out.println(sp[2].split("\\|").length);
-			// pm[0] = pmi
-			double pmi = Double.parseDouble(pm[0]);
-			// mention is twice the same in one row, hence retrieval of only one is enough
-			// mention is letters enclosed in parentheses
-			Pattern p = Pattern.compile("(?<=\\()[\\w'-\\.]+?(?=\\))");
-			Matcher m = p.matcher(pm[1]);
-			// matcher should always find match
-			m.find();
-			String mention = m.group();
-			if (!fullPrep) {
-				if (sp[0].contains("p_"))
-					sp[0] = sp[0].substring(0, sp[0].indexOf('_'));
-				if (sp[1].contains("p_"))
-					sp[1] = sp[1].substring(0, sp[1].indexOf('_'));
 			}
-			Event e1 = new Event(sp[0], mention, "");
-			Event e2 = new Event(sp[1], mention, "");
-			events.add(e1);
-			events.add(e2);
-			table.put(sp[0]+sp[1], pmi);
-			addDependencyToPool(e1.getDependency(fullPrep));
-			addDependencyToPool(e2.getDependency(fullPrep));
+			// move unparsed bytes to the beginning
+			buf.limit(buf.position());
+			buf.position(end);
+			buf.compact();
 		}
-		br.close();
+		parseLastLine(parser, buf, buf.position());
+		return parser;
 	}
 	
 	/**
-	 * Helper method to retain only unique elements
-	 * @param dependency dependency to add
+	 * Parses a pair buffer file in parallel
+	 * <p>
+	 * The file is split into newline-aligned ranges which are memory-mapped and
+	 * parsed by one parser each. The parsers are merged in file order, so the result
+	 * is the same as for sequential parsing
+	 * @param fc file channel
+	 * @param fullPrep flag to indicate that full preposition information should be used
+	 * @return parser
+	 * @throws IOException
 	 */
-	private void addDependencyToPool (String dependency) {
-		if (!dependencyPool.contains(dependency))
-			dependencyPool.add(dependency);
+	private PairBufferParser readMapped (final FileChannel fc, final boolean fullPrep) throws IOException {
+		List<long[]> ranges = MappedFile.ranges(fc, threads);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<Future<PairBufferParser>> tasks = new ArrayList<Future<PairBufferParser>>();
+			for (final long[] range : ranges) {
+				tasks.add(pool.submit(new Callable<PairBufferParser>() {
+					@Override
+					public PairBufferParser call () throws IOException {
+						MappedByteBuffer buf = MappedFile.map(fc, range);
+						PairBufferParser p = new PairBufferParser(fullPrep);
+						int end = p.parse(buf, 0, buf.limit());
+						buf.position(end);
+						parseLastLine(p, buf.slice(), buf.limit() - end);
+						return p;
+					}
+				}));
+			}
+			PairBufferParser parser = new PairBufferParser(fullPrep);
+			for (Future<PairBufferParser> task : tasks)
+				parser.merge(MappedFile.await(task));
+			return parser;
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Parses the last line of a file if it does not end with a line break
+	 * @param parser parser
+	 * @param buf buffer starting at the last line
+	 * @param length length of the last line
+	 */
+	private static void parseLastLine (PairBufferParser parser, ByteBuffer buf, int length) {
+		if (length == 0)
+			return;
+		if (buf.get(length-1) == '\r')
+			length--;
+		parser.parseLine(buf, 0, length);
+	}
+	
+	/**
+	 * Sets the number of threads used to parse pair buffer files.
+	 * With more than one thread, files are memory-mapped and parsed in parallel ranges
+	 * @param threads number of threads
+	 */
+	public void setThreads (int threads) {
+		this.threads = threads;
 	}
 	
 	/**
@@ -228,12 +305,33 @@ public class Reader {
 	
 	/**
 	 * Returns read-in PMI table
+	 * <p>
+	 * Keys are the concatenated typed dependencies. The table is built on first access
 	 * @return pmi table
 	 */
 	public Map<String, Double> getTable () {
+		if (table == null)
+			table = parser.getTable();
 		return table;
 	}
 	
+	/**
+	 * Returns read-in PMI values by pair of symbol ids
+	 * @return pmi values
+	 * @see PairBufferParser#getPmis()
+	 */
+	public LongDoubleMap getPmis () {
+		return parser == null ? new LongDoubleMap() : parser.getPmis();
+	}
+	
+	/**
+	 * Returns the symbols of read-in typed dependencies and mentions
+	 * @return symbols
+	 */
+	public SymbolTable getSymbols () {
+		return parser == null ? new SymbolTable() : parser.getSymbols();
+	}
+	
 	/**
 	 * Returns read-in dependencies
 	 * @return dependencies
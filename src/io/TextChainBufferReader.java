@@ -0,0 +1,95 @@
+package io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import chain.element.Entry;
+import chain.element.Event;
+import chain.element.EventBlock;
+
+/**
+ * Class used to read chain buffer files in the text format
+ * <p>
+ * A record has the format<br/>
+ * <em>id;event:event:...:&amp;!&amp;event:...:&amp;!&amp;</em><br/>
+ * where every event has the format <em>lemma-type( argument ) [ mention ]</em>
+ * @author David
+ *
+ */
+public class TextChainBufferReader implements ChainBufferReader {
+
+	/**
+	 * Line reader
+	 */
+	private BufferedReader br;
+
+	/**
+	 * Constructor
+	 * @param f chain buffer file
+	 * @throws IOException
+	 */
+	public TextChainBufferReader (File f) throws IOException {
+		br = new BufferedReader(new FileReader(f));
+	}
+
+	/**
+	 * Returns the next record of the file
+	 * @return next record or <b>null</b> if the end of the file has been reached
+	 * @throws IOException
+	 */
+	@Override
+	public Entry next () throws IOException {
+		String l = br.readLine();
+		if (l == null)
+			return null;
+		return parseEntry(l);
+	}
+
+	/**
+	 * Skips records without parsing them
+	 * @param n number of records to skip
+	 * @return number of skipped records
+	 * @throws IOException
+	 */
+	@Override
+	public long skip (long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && br.readLine() != null)
+			skipped++;
+		return skipped;
+	}
+
+	/**
+	 * Parses a record
+	 * @param l line
+	 * @return entry
+	 */
+	public static Entry parseEntry (String l) {
+		// split off id
+		String[] sp = l.split(";");
+		// create entry
+		Entry e = new Entry(sp[0]);
+		// split off event blocks
+		String[] blocks = sp[1].split("&!&");
+		for (int i = 0; i < blocks.length; i++) {
+			EventBlock eb = new EventBlock();
+			// split off events
+			String[] events = blocks[i].split(":");
+			for (int j = 0; j < events.length; j++)
+				eb.add(new Event(events[j]));
+			// add created event block to entry
+			e.addEvent(eb);
+		}
+		return e;
+	}
+
+	/**
+	 * Closes the underlying file
+	 */
+	@Override
+	public void close () throws IOException {
+		br.close();
+	}
+}
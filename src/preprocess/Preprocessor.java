@@ -17,11 +17,27 @@ import edu.stanford.nlp.util.CoreMap;
 
 /**
  * Class for preprocessing text
+ * <p>
+ * The StanfordCoreNLP pipeline is created on the first call to {@link #process(String)}
+ * and reused for every following document. A Preprocessor is not thread-safe,
+ * use one instance per thread.
+ * <p>
+ * StanfordCoreNLP takes its annotators from a static pool, so all pipelines would share the same
+ * annotator instances, and dcoref is not thread-safe. Every Preprocessor loads its pipeline from a
+ * new pool, so it has annotators of its own. Pipelines are loaded one at a time
  * @author David
  *
  */
 public class Preprocessor {
 
+	/**
+	 * Annotators used by the pipeline
+	 */
+	private final static String annotators = "tokenize, ssplit, pos, lemma, ner, parse, dcoref";
+	/**
+	 * StanfordCoreNLP pipeline, loaded once
+	 */
+	private StanfordCoreNLP pipeline;
 	/**
 	 * A list of SemanticGraph
 	 */
@@ -30,7 +46,23 @@ public class Preprocessor {
 	 * A map of coreferences
 	 */
 	private Map<Integer, CorefChain> ccg;
-	
+	/**
+	 * Time taken to load the pipeline in ms
+	 */
+	private long startupTime;
+	/**
+	 * Time taken to annotate all documents in ms
+	 */
+	private long annotationTime;
+	/**
+	 * Time taken to annotate the first document in ms
+	 */
+	private long firstDocumentTime;
+	/**
+	 * Number of annotated documents
+	 */
+	private int documentCount;
+
 	/**
 	 * No-argument constructor
 	 */
@@ -38,16 +70,35 @@ public class Preprocessor {
 		sgs = new ArrayList<SemanticGraph>();
 		ccg = new HashMap<Integer, CorefChain>();
 	}
+
+	/**
+	 * Loads the StanfordCoreNLP pipeline if it has not been loaded yet
+	 */
+	public void load () {
+		if (pipeline != null)
+			return;
+		long start = System.currentTimeMillis();
+		Properties props = new Properties();
+		props.put("annotators", annotators);
+		synchronized (Preprocessor.class) {
+			// a new pool creates new annotators, instead of returning those of other pipelines
+			StanfordCoreNLP.clearAnnotatorPool();
+			pipeline = new StanfordCoreNLP(props);
+		}
+		startupTime = System.currentTimeMillis() - start;
+	}
+
 	/**
 	 * Preprocesses a text
 	 * <p>
-	 * The text is run through the entire StanfordCoreNLP Pipeline
+	 * The text is run through the entire StanfordCoreNLP Pipeline.
+	 * Results of the previous document are cleared first
 	 * @param text text
 	 */
 	public void process (String text) {
-		Properties props = new Properties();
-		props.put("annotators", "tokenize, ssplit, pos, lemma, ner, parse, dcoref");
-		StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
+		load();
+		clear();
+		long start = System.currentTimeMillis();
 		Annotation document = new Annotation(text);
 		pipeline.annotate(document);
 		List<CoreMap> sentences = document.get(SentencesAnnotation.class);
@@ -55,8 +106,23 @@ public class Preprocessor {
 			sgs.add(sentence.get(CollapsedCCProcessedDependenciesAnnotation.class));
 		}
 		ccg =  document.get(CorefChainAnnotation.class);
+		long taken = System.currentTimeMillis() - start;
+		if (documentCount == 0)
+			firstDocumentTime = taken;
+		annotationTime += taken;
+		documentCount++;
+	}
+
+	/**
+	 * Clears all per-document state
+	 * <p>
+	 * The loaded pipeline is kept
+	 */
+	public void clear () {
+		sgs = new ArrayList<SemanticGraph>();
+		ccg = new HashMap<Integer, CorefChain>();
 	}
-	
+
 	/**
 	 * Method for retrieving the SemanticGraph list
 	 * @return List&lt;SemanticGraph&gt;
@@ -64,7 +130,7 @@ public class Preprocessor {
 	public List<SemanticGraph> getSemanticGraphs () {
 		return sgs;
 	}
-	
+
 	/**
 	 * Method for retrieving the Coreference graph
 	 * @return Map&lt;Integer, CorefChain&gt;
@@ -72,4 +138,33 @@ public class Preprocessor {
 	public Map<Integer, CorefChain> getCorefChains () {
 		return ccg;
 	}
+
+	/**
+	 * Returns the number of documents annotated by this Preprocessor
+	 * @return number of documents
+	 */
+	public int getDocumentCount () {
+		return documentCount;
+	}
+
+	/**
+	 * Returns a report of startup and steady-state timings
+	 * <p>
+	 * Startup is the time taken to load the models. Steady state is the
+	 * average annotation time per document after the first one
+	 * @return timing report
+	 */
+	public String getTimingReport () {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Pipeline startup: ").append(startupTime).append(" ms\n");
+		sb.append("Documents annotated: ").append(documentCount).append("\n");
+		sb.append("First document: ").append(firstDocumentTime).append(" ms\n");
+		if (documentCount > 1) {
+			long steady = (annotationTime - firstDocumentTime) / (documentCount - 1);
+			sb.append("Steady state: ").append(steady).append(" ms/document\n");
+			// time that would have been spent reloading the models for every document
+			sb.append("Saved by reuse: ").append(startupTime * (documentCount - 1)).append(" ms\n");
+		}
+		return sb.toString();
+	}
 }
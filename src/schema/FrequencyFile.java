@@ -0,0 +1,187 @@
+package schema;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import util.LongLongMap;
+
+/**
+ * Class used to store the frequency table of a pair buffer file in a binary, memory-mapped file
+ * <p>
+ * The file starts with a header of magic number, version, key encoding, number of entries and the
+ * fingerprint of the pair buffer file the frequencies were calculated from. The sorted keys follow,
+ * then the frequencies in the same order. Lookups are binary searches in the mapped file,
+ * so the table needs no heap and no parsing when it is loaded. Lookups are thread-safe
+ * @author David
+ *
+ */
+class FrequencyFile {
+
+	/**
+	 * Magic number <em>NCFT</em>
+	 */
+	private final static int MAGIC = 0x4E434654;
+	/**
+	 * Format version
+	 */
+	private final static int VERSION = 1;
+	/**
+	 * Size of the header in bytes
+	 */
+	private final static int HEADER = 32;
+	/**
+	 * Maximum number of entries, the keys are mapped at once
+	 */
+	private final static int maxEntries = Integer.MAX_VALUE / 8;
+	/**
+	 * Mapped keys and frequencies
+	 */
+	private LongBuffer keys;
+	private IntBuffer values;
+	/**
+	 * Number of entries
+	 */
+	private int size;
+
+	/**
+	 * Constructor
+	 * @param keys mapped keys
+	 * @param values mapped frequencies
+	 * @param size number of entries
+	 */
+	private FrequencyFile (LongBuffer keys, IntBuffer values, int size) {
+		this.keys = keys;
+		this.values = values;
+		this.size = size;
+	}
+
+	/**
+	 * Returns whether a file is a binary frequency file
+	 * @param f file
+	 * @return true if the file starts with the magic number
+	 * @throws IOException
+	 */
+	static boolean isBinary (File f) throws IOException {
+		if (f.length() < HEADER)
+			return false;
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			return in.readInt() == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Maps a frequency file
+	 * @param f frequency file
+	 * @param encoding key encoding the keys have to use
+	 * @param fingerprint fingerprint of the pair buffer file the frequencies have to belong to
+	 * @return mapped frequency file or null if the file belongs to another pair buffer file or key encoding
+	 * @throws IOException if the file is no frequency file
+	 */
+	static FrequencyFile open (File f, int encoding, long fingerprint) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			if (raf.readInt() != MAGIC || raf.readInt() != VERSION)
+				throw new IOException(f.getName() + " is not a frequency file");
+			if (raf.readInt() != encoding)
+				return null;
+			int size = raf.readInt();
+			if (raf.readLong() != fingerprint)
+				return null;
+			if (raf.readLong() != size || raf.length() != HEADER + size * 12L)
+				throw new IOException("Corrupt frequency file, wrong number of entries");
+			FileChannel fc = raf.getChannel();
+			LongBuffer keys = fc.map(FileChannel.MapMode.READ_ONLY, HEADER, size * 8L).asLongBuffer();
+			IntBuffer values = fc.map(FileChannel.MapMode.READ_ONLY, HEADER + size * 8L, size * 4L).asIntBuffer();
+			// the mapping stays valid after the file is closed
+			return new FrequencyFile(keys, values, size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a frequency table
+	 * <p>
+	 * The file is replaced at once, so it is never left half written
+	 * @param f frequency file
+	 * @param table frequencies by key
+	 * @param encoding key encoding
+	 * @param fingerprint fingerprint of the pair buffer file
+	 * @throws IOException
+	 */
+	static void write (File f, LongLongMap table, int encoding, long fingerprint) throws IOException {
+		if (table.size() > maxEntries)
+			throw new IOException("Too many frequencies for a frequency file");
+		long[] k = table.keys();
+		Arrays.sort(k);
+		File tmp = new File(f.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(encoding);
+			out.writeInt(k.length);
+			out.writeLong(fingerprint);
+			// the number of entries again, the header is padded to the alignment of the keys
+			out.writeLong(k.length);
+			for (long key : k)
+				out.writeLong(key);
+			for (long key : k)
+				out.writeInt((int) table.get(key, 0));
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Returns the frequency of a key
+	 * @param key key
+	 * @return frequency or 0 if the key is not in the table
+	 */
+	int get (long key) {
+		int lo = 0, hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long k = keys.get(mid);
+			if (k < key)
+				lo = mid + 1;
+			else if (k > key)
+				hi = mid - 1;
+			else
+				return values.get(mid);
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the number of entries
+	 * @return number of entries
+	 */
+	int size () {
+		return size;
+	}
+
+	/**
+	 * Returns the size of the mapped file in bytes
+	 * @return bytes
+	 */
+	long footprint () {
+		return HEADER + size * 12L;
+	}
+}
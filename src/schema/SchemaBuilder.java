@@ -1,15 +1,26 @@
 package schema;
 
+import io.MappedFile;
 import io.NCWriter;
 import io.Reader;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import util.CountMinSketch;
+import util.LongDoubleMap;
+import util.LongLongMap;
+import util.StageCache;
+import util.SymbolTable;
 
 import schema.element.GlobalScore;
 import schema.element.Schema;
@@ -26,13 +37,30 @@ import chain.element.Event;
 public class SchemaBuilder {
 
 	/**
-	 * PMI lookup table
+	 * Number of bits of the typed dependency ids and of the mention id in a frequency key
+	 */
+	private final static int typedDepBits = 21, mentionBits = 22;
+	/**
+	 * Key encoding stored in frequency files
+	 */
+	private final static int keyEncoding = typedDepBits << 8 | mentionBits;
+	/**
+	 * PMI lookup table, keyed by the ids of both typed dependencies in the order of the pair
+	 */
+	private LongDoubleMap pmiTable;
+	/**
+	 * (e,d; e',d';a) frequency lookup table, keyed by the ids of both typed dependencies
+	 * in ascending order and the id of the argument
 	 */
-	private Map <String, Double> pmiTable;
+	private LongLongMap frequencyTable;
 	/**
-	 * (e,d; e',d';a) frequency lookup table
+	 * Mapped frequency file, used instead of the frequency table if it belongs to the pair buffer file
 	 */
-	private Map<String, Integer> frequencyTable;
+	private FrequencyFile frequencyFile;
+	/**
+	 * Ids of the typed dependencies and mentions in the keys of the lookup tables
+	 */
+	private SymbolTable typedDeps, mentions;
 	/**
 	 * Frequency threshold value
 	 */
@@ -45,6 +73,11 @@ public class SchemaBuilder {
 	 * Events
 	 */
 	private List<Event> events;
+	/**
+	 * Positions of the events by typed dependency and mention, in ascending order.
+	 * The first element of every array is the number of positions
+	 */
+	private Map<String, int[]> positions;
 	/**
 	 * Weighting factor
 	 */
@@ -73,14 +106,24 @@ public class SchemaBuilder {
 	 * File writer
 	 */
 	private NCWriter ncw;
+	/**
+	 * Number of threads used to read the pair buffer file and to populate the frequency table
+	 */
+	private int threads = 1;
+	/**
+	 * Flag to indicate that frequency files of earlier versions (text) are used
+	 */
+	private boolean legacyFrequencies;
 
 	/**
 	 * No-argument constructor
 	 */
 	public SchemaBuilder () {
 		// initialize components
-		pmiTable = new HashMap<String, Double>();
-		frequencyTable = new HashMap<String, Integer>();
+		pmiTable = new LongDoubleMap();
+		frequencyTable = new LongLongMap();
+		typedDeps = new SymbolTable();
+		mentions = new SymbolTable();
 		mentionPool = new ArrayList<String>();
 		dependencyPool = new ArrayList<String>();
 		schemas = new ArrayList<Schema>();
@@ -95,6 +138,14 @@ public class SchemaBuilder {
 		this.path = path;
 	}
 	
+	/**
+	 * Sets the number of threads used to read the pair buffer file and to populate the frequency table
+	 * @param t number of threads
+	 */
+	public void setThreads (int t) {
+		threads = t;
+	}
+	
 	/**
 	 * Data reading method
 	 * @throws IOException 
@@ -104,16 +155,34 @@ public class SchemaBuilder {
 		long now = System.currentTimeMillis();
 		// initialize reader
 		Reader r = new Reader();
+		r.setThreads(threads);
 		// read pair buffer file
 		r.readPairBuffer(path, fullArgument);
 		// retrieve dependencies
 		dependencyPool = r.getDependencyPool();
-		// retrieve pmi table
-		pmiTable = r.getTable();
 		// retrieve events
 		events = r.getEvents();
+		// intern typed dependencies and mentions
+		for (Event e : events) {
+			typedDeps.intern(e.getTypedDep());
+			mentions.intern(e.getMention());
+		}
+		if (typedDeps.size() > 1 << typedDepBits || mentions.size() > 1 << mentionBits)
+			throw new IOException("Too many typed dependencies or mentions for the frequency table");
+		// retrieve pmi table, mapped to the typed dependency ids
+		SymbolTable symbols = r.getSymbols();
+		LongDoubleMap pmis = r.getPmis();
+		pmiTable = new LongDoubleMap(pmis.size());
+		for (long key : pmis.keys()) {
+			int td1 = typedDeps.intern(symbols.get((int) (key >>> 32)));
+			int td2 = typedDeps.intern(symbols.get((int) key));
+			pmiTable.put(pmiKey(td1, td2), pmis.get(key, 0.0));
+		}
 		printTimeTaken(now, "ms");
 		populateFrequencyTable(writeFrequencyFile);
+		String frequencies = frequencyFile != null ? frequencyFile.size() + " frequencies [mapped, " + (frequencyFile.footprint() >> 10)
+				: frequencyTable.size() + " frequencies [" + (frequencyTable.footprint() >> 10);
+		System.err.println("Lookup tables: " + frequencies + " KB], " + pmiTable.size() + " pmi values [" + (pmiTable.footprint() >> 10) + " KB]");
 	}
 
 	/**
@@ -135,79 +204,260 @@ public class SchemaBuilder {
 		} else if (file.length > 0 && (new File(file[0]).exists())) {
 			fname = file[0];
 		}
+		// frequency file to write
+		String out = file.length>0?file[0]:"./frequencyFile";
+		// binary frequency files are mapped if they belong to the pair buffer file
+		if (!fname.equals("") && FrequencyFile.isBinary(new File(fname))) {
+			frequencyFile = FrequencyFile.open(new File(fname), keyEncoding, fingerprint());
+			if (frequencyFile != null) {
+				printTimeTaken(startLog, "ms");
+				return;
+			}
+			System.err.print(fname + " belongs to another pair buffer file, recalculating...");
+			fname = "";
+		}
+		// text frequency files cannot be checked against the pair buffer file
+		if (!fname.equals("") && !legacyFrequencies) {
+			System.err.print(fname + " is a frequency file of an earlier version, recalculating...");
+			fname = "";
+		}
 		// if filename is not empty
 		if (!fname.equals("")) {
 			// initialize reader
 			Reader r = new Reader();
 			// read file
 			String freq = r.readFile(new File(fname));
+			// number of keys that cannot be resolved
+			int unknown = 0;
 			// retrieve information
 			for (String s : freq.split(System.lineSeparator())) {
 				String[] sp = s.split("\t");
 				// get frequency count
 				int intfreq = Integer.parseInt(sp[1]);
 				// populate table
-				frequencyTable.put(sp[0], intfreq);
+				if (!addFrequency(sp[0], intfreq))
+					unknown++;
 			}
 			printTimeTaken(startLog, "ms");
+			if (unknown > 0)
+				System.err.println("Skipped " + unknown + " frequencies of unknown typed dependencies or mentions");
+			// replace text frequency files
+			if (write)
+				FrequencyFile.write(new File(out), frequencyTable, keyEncoding, fingerprint());
 			// end method
 			return;
 		}
-		// if no frequency file found, initialize writer
-		if (write)
-			ncw = new NCWriter();
 		// merge events
 		list = mergeEvents();
 		// remove verbs that don't have subject and object
 		purifyList();
+		// index events for freq
+		indexEvents();
 		// outer loop: for all verbs
-		for (int i = 0; i < list.size()-1; i++) {
-			// get the i-th verb
-			Event e1 = list.get(i);
-			// inner loop: for all verbs
-			for (int j = i+1; j < list.size(); j++) {
-				// get the j-th verb
-				Event e2 = list.get(j);
-				// if both verbs are the same, continue
-				if (e1.equals(e2))
+		if (threads > 1) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				// rows are calculated by idle workers, and added in list order
+				List<Future<int[]>> rows = new ArrayList<Future<int[]>>(list.size());
+				for (int i = 0; i < list.size()-1; i++)
+					rows.add(pool.submit(rowTask(i)));
+				for (Future<int[]> row : rows)
+					addRow(MappedFile.await(row));
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			for (int i = 0; i < list.size()-1; i++)
+				addRow(frequencyRow(i));
+		}
+		if (write)
+			FrequencyFile.write(new File(out), frequencyTable, keyEncoding, fingerprint());
+		positions = null;
+		printTimeTaken(startLog, "s");
+	}
+
+	/**
+	 * Calculates the frequencies of the i-th verb of the merged list with all following verbs
+	 * <p>
+	 * Only reads shared state, so rows can be calculated in parallel
+	 * @param i index of the verb
+	 * @return ids of both typed dependencies, id of the argument and frequency of every frequency
+	 * above the threshold, in the order of calculation
+	 */
+	private int[] frequencyRow (int i) {
+		int[] row = new int[16];
+		int n = 0;
+		// get the i-th verb
+		Event e1 = list.get(i);
+		int td1 = typedDeps.lookup(e1.getTypedDep());
+		// inner loop: for all verbs
+		for (int j = i+1; j < list.size(); j++) {
+			// get the j-th verb
+			Event e2 = list.get(j);
+			// if both verbs are the same, continue
+			if (e1.equals(e2))
+				continue;
+			int td2 = typedDeps.lookup(e2.getTypedDep());
+			// for all mentions of e2
+			for (String a : e2.getMentions()) {
+				/*
+				 * Short circuit 1:
+				 * If e1 does not contain the mention of e2,
+				 * there will be no frequency for (e1,e2,a).
+				 */
+				if (!e1.getMentions().contains(a))
 					continue;
-				// for all mentions of e2
-				for (int k = 0; k < e2.getMentions().size(); k++) {
-					// get k-th mention
-					String a = e2.getMention(k);
-					/*
-					 * Short circuit 1:
-					 * If e1 does not contain the mention of e2,
-					 * there will be no frequency for (e1,e2,a).
-					 */
-					if (!e1.getMentions().contains(a))
-						continue;
-					// assemble key and reverse key
-					String key = e1.getTypedDep() + e2.getTypedDep() + a;
-					String revKey = e2.getTypedDep() + e1.getTypedDep() + a;
-					/*
-					 * Short circuit 2:
-					 * If the frequency (e1,e2,a) has been calculated,
-					 * do not calculate the frequency (e2,e1,a), because it's the same
-					 */
-					if (frequencyTable.containsKey(key) || frequencyTable.containsKey(revKey))
-						continue;
-					// calculate the frequency of occurrence
-					int f = (int) freq(e1, e2, a);
-					// if frequency is above the frequency threshold
-					if (f >= frequencyThreshold) {
-						//System.out.println("Calculating " + key + ": " + f);
-						// put key->value into table
-						frequencyTable.put(key, f);
-						// if write flag
-						if (write)
-							// write file
-							ncw.write(key + "\t" + f + System.lineSeparator(), file.length>0?file[0]:"./frequencyFile");
-					}
+				// calculate the frequency of occurrence
+				int f = (int) freq(e1, e2, a);
+				// if frequency is above the frequency threshold
+				if (f >= frequencyThreshold) {
+					if (n + 4 > row.length)
+						row = Arrays.copyOf(row, row.length * 2);
+					row[n++] = td1;
+					row[n++] = td2;
+					row[n++] = mentions.lookup(a);
+					row[n++] = f;
 				}
 			}
 		}
-		printTimeTaken(startLog, "s");
+		return Arrays.copyOf(row, n);
+	}
+
+	/**
+	 * Returns a task calculating a row of frequencies
+	 * @param i index of the verb
+	 * @return task
+	 */
+	private Callable<int[]> rowTask (final int i) {
+		return new Callable<int[]>() {
+			@Override
+			public int[] call () {
+				return frequencyRow(i);
+			}
+		};
+	}
+
+	/**
+	 * Adds a row of frequencies to the frequency table
+	 * @param row row as returned by {@link #frequencyRow(int)}
+	 */
+	private void addRow (int[] row) {
+		for (int c = 0; c < row.length; c += 4) {
+			// assemble key, shared by (e1,e2,a) and (e2,e1,a)
+			long key = frequencyKey(row[c], row[c+1], row[c+2]);
+			/*
+			 * Short circuit 2:
+			 * If the frequency (e1,e2,a) has been calculated,
+			 * do not add the frequency (e2,e1,a), because it's the same
+			 */
+			if (frequencyTable.containsKey(key))
+				continue;
+			// put key->value into table
+			frequencyTable.put(key, row[c+3]);
+		}
+	}
+
+	/**
+	 * Adds an entry of a frequency file to the frequency table
+	 * <p>
+	 * Keys of frequency files are the concatenated typed dependencies and argument. They are split into
+	 * two known typed dependencies and a known mention, the first possible split is used
+	 * @param key concatenated key
+	 * @param f frequency
+	 * @return false if the key cannot be split
+	 */
+	private boolean addFrequency (String key, int f) {
+		for (int p = 1; p < key.length() - 1; p++) {
+			int td1 = typedDeps.lookup(key.substring(0, p));
+			if (td1 < 0)
+				continue;
+			for (int q = p + 1; q < key.length(); q++) {
+				int td2 = typedDeps.lookup(key.substring(p, q));
+				if (td2 < 0)
+					continue;
+				int a = mentions.lookup(key.substring(q));
+				if (a >= 0) {
+					frequencyTable.put(frequencyKey(td1, td2, a), f);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the fingerprint of the pair buffer file and of the ids of its typed dependencies and mentions
+	 * <p>
+	 * Frequency files store keys of ids, so they can only be used with a pair buffer file
+	 * that yields the same frequencies and ids. The pair buffer file is hashed by content,
+	 * the hash is remembered next to it and checked by length, modification time, start and end of the file
+	 * @return fingerprint
+	 * @throws IOException
+	 */
+	private long fingerprint () throws IOException {
+		long h = StageCache.storedHash(new File(path));
+		h = h * 31 + (fullArgument ? 1 : 0);
+		h = h * 31 + frequencyThreshold;
+		for (int i = 0; i < typedDeps.size(); i++)
+			h = h * 0x100000001B3L ^ CountMinSketch.hash(typedDeps.get(i));
+		h = h * 31 + typedDeps.size();
+		for (int i = 0; i < mentions.size(); i++)
+			h = h * 0x100000001B3L ^ CountMinSketch.hash(mentions.get(i));
+		return h * 31 + mentions.size();
+	}
+
+	/**
+	 * Returns the key of two typed dependencies in the PMI table
+	 * @param td1 id of typed dependency 1
+	 * @param td2 id of typed dependency 2
+	 * @return key
+	 */
+	private static long pmiKey (int td1, int td2) {
+		return ((long) td1 << 32) | td2;
+	}
+
+	/**
+	 * Returns the key of two typed dependencies and an argument in the frequency table
+	 * <p>
+	 * The typed dependencies are ordered by id, so both orders share one key
+	 * @param td1 id of typed dependency 1
+	 * @param td2 id of typed dependency 2
+	 * @param a id of the argument
+	 * @return key
+	 */
+	private static long frequencyKey (int td1, int td2, int a) {
+		long lo = Math.min(td1, td2), hi = Math.max(td1, td2);
+		return (lo << (typedDepBits + mentionBits)) | (hi << mentionBits) | a;
+	}
+
+	/**
+	 * Builds the positions of the events by typed dependency and mention in one pass
+	 */
+	private void indexEvents () {
+		positions = new HashMap<String, int[]>();
+		for (int p = 0; p < events.size(); p++) {
+			Event e = events.get(p);
+			String key = positionKey(e.getTypedDep(), e.getMention());
+			int[] l = positions.get(key);
+			if (l == null) {
+				l = new int[4];
+				positions.put(key, l);
+			} else if (l[0] + 1 == l.length) {
+				l = Arrays.copyOf(l, l.length * 2);
+				positions.put(key, l);
+			}
+			l[++l[0]] = p;
+		}
+	}
+
+	/**
+	 * Returns the key of a typed dependency and a mention in the position index
+	 * @param typedDep typed dependency
+	 * @param mention mention
+	 * @return key
+	 */
+	private static String positionKey (String typedDep, String mention) {
+		return typedDep + "\t" + mention;
 	}
 
 	/**
@@ -249,12 +499,16 @@ public class SchemaBuilder {
 	 * @return similarity value
 	 */
 	private double sim (Event e1, Event e2, String a) {		
-		// concatenate lookup string
-		String lookup = e1.getTypedDep() + e2.getTypedDep();
+		// look up ids, no strings are built
+		int td1 = typedDeps.lookup(e1.getTypedDep());
+		int td2 = typedDeps.lookup(e2.getTypedDep());
+		// events that have not been read have no frequency
+		if (td1 < 0 || td2 < 0)
+			return 0.0;
 		// get pmi value
-		double pmi = pmiLookup(lookup);
+		double pmi = pmiTable.get(pmiKey(td1, td2), 0.0);
 		// return similarity
-		int f = frequencyLookup(e1, e2, a);
+		int f = frequencyLookup(td1, td2, mentions.lookup(a));
 		//(int) freq(e1,e2,a); //frequencyLookup(e1, e2, a);
 		double simval = 0.0;
 		if (f > 0)
@@ -266,77 +520,49 @@ public class SchemaBuilder {
 	/**
 	 * Utility method to un-clutter code
 	 * <p>
-	 * Looks up the frequency value for two events and an argument in the frequency table
-	 * @param e1 event 1
-	 * @param e2 event 2
-	 * @param a argument
+	 * Looks up the frequency value for two typed dependencies and an argument in the frequency table,
+	 * one probe covers both orders of the typed dependencies
+	 * @param td1 id of typed dependency 1
+	 * @param td2 id of typed dependency 2
+	 * @param a id of the argument, -1 if unknown
 	 * @return frequency
 	 */
-	private int frequencyLookup (Event e1, Event e2, String a) {
-		// assemble key
-		String key = e1.getTypedDep() + e2.getTypedDep() + a;
-		// assemble reverse key
-		String revKey = e2.getTypedDep() + e1.getTypedDep() + a;
-		// if table contains key
-		if (frequencyTable.containsKey(key))
-			// return value
-			return frequencyTable.get(key);
-		if (frequencyTable.containsKey(revKey))
-			return frequencyTable.get(revKey);
-		// else return 0
-		return 0;
-	}
-
-	/**
-	 * Utility method to not clutter code
-	 * <p>
-	 * Returns the PMI value if the key is in the table, 
-	 * 0.0 otherwise
-	 * @param lookup key to look up
-	 * @return PMI if present
-	 */
-	private double pmiLookup (String lookup) {
-		// if table contains lookup key
-		if (pmiTable.containsKey(lookup)) {
-			// return value
-			return pmiTable.get(lookup);
-		}
-		// return 0.0 else
-		return 0.0;
+	private int frequencyLookup (int td1, int td2, int a) {
+		if (a < 0)
+			return 0;
+		if (frequencyFile != null)
+			return frequencyFile.get(frequencyKey(td1, td2, a));
+		return (int) frequencyTable.get(frequencyKey(td1, td2, a), 0);
 	}
 
 	/**
 	 * Helper method to calculate the occurrence of an argument <em>a</em> given two events
 	 * <p>
-	 * Returns how often the argument <em>a</em> filled the argument positions of the events 1 and 2
+	 * Returns how often the argument <em>a</em> filled the argument positions of the events 1 and 2,
+	 * i.e. the number of positions i of e1 and j of e2 with argument a where j &gt;= i and j &gt;= 1.
+	 * The sorted positions of both events are merged, so the cost is linear in the number of positions
 	 * @param e1 event 1
 	 * @param e2 event 2
 	 * @param a argument
 	 * @return frequency count
 	 */
 	private double freq (Event e1, Event e2, String a) {
+		int[] l1 = positions.get(positionKey(e1.getTypedDep(), a));
+		int[] l2 = positions.get(positionKey(e2.getTypedDep(), a));
+		if (l1 == null || l2 == null)
+			return 0;
 		// frequency counter
 		int count = 0;
-		// because of j = 1, j can cause IndexOutOfBoundsException if events contains less than two events
-		try {
-			// loop over all events (outer loop)
-			for (int i = 0; i < events.size(); i++) {
-				// loop over all events (inner loop)
-				for (int j = 1; j < events.size(); j++) {
-					// don't count visited elements more than once
-					if (j < i)
-						continue;
-					// if we can find the events e1 and e2
-					if (events.get(i).equals(e1) && events.get(j).equals(e2)) {
-						// if the events have 'a' as argument
-						if (a.equals(events.get(i).getMention()) && a.equals(events.get(j).getMention()))
-							// increase frequency counter
-							count++;
-					}
-				}
-			}
-		} catch (IndexOutOfBoundsException e) { // catch eventual exceptions
-			// empty block
+		// number of positions of e1 up to the current position of e2, plus one
+		int k = 1;
+		for (int b = 1; b <= l2[0]; b++) {
+			int j = l2[b];
+			// the first event is never the second event of a pair
+			if (j < 1)
+				continue;
+			while (k <= l1[0] && l1[k] <= j)
+				k++;
+			count += k - 1;
 		}
 		// return frequency count
 		return count;
@@ -680,6 +906,8 @@ public class SchemaBuilder {
 			// write to file
 			ncw.write(s.toString(), filename);
 		}
+		if (ncw != null)
+			ncw.close();
 		long end = System.currentTimeMillis();
 		System.err.println("Finished. Time taken: " + (end - start)/1000 + " s");
 	}
@@ -899,6 +1127,18 @@ public class SchemaBuilder {
 		fullArgument = b;
 	}
 
+	/**
+	 * Sets the flag to use frequency files of earlier versions (text)
+	 * <p>
+	 * Text frequency files do not record the pair buffer file they were calculated from, so by default
+	 * they are treated as out of date and the frequencies are recalculated. If this flag is set to true,
+	 * they are read without a check. Default value: false
+	 * @param b flag
+	 */
+	public void setUseLegacyFrequencies (boolean b) {
+		legacyFrequencies = b;
+	}
+
 	/**
 	 * Main method
 	 * @param args arguments
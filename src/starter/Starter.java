@@ -1,6 +1,9 @@
 package starter;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -11,6 +14,9 @@ import org.apache.commons.cli.ParseException;
 
 import schema.SchemaBuilder;
 
+import util.CountMinSketch;
+import util.StageCache;
+
 import chain.ChainBuilder;
 import chain.PairBuilder;
 
@@ -41,26 +47,86 @@ public class Starter {
 		options.addOption("write", false,"Write frequency file after calculation");
 		options.addOption("co", false, "ChainBuilder only. Complete only the first step");
 		options.addOption("so", false, "SchemaBuilder only. Complete only the third step");
+		options.addOption("threads", true, "Number of worker threads");
+		options.addOption("binary", false, "Write the chain buffer in binary format");
+		options.addOption("stream", false, "Read the chain buffer twice instead of holding it in memory");
+		options.addOption("mem", true, "Memory budget for the pair counts in MB");
+		options.addOption("sketch", true, "Estimate pair counts with count-min sketches of width,depth counters");
+		options.addOption("cu", false, "Conservative update of the count-min sketches");
+		options.addOption("inc", false, "Only count and pair the records appended to the chain buffer since the last run");
+		options.addOption("minCount", true, "Minimum event count of both typed dependencies of a pair");
+		options.addOption("minJoint", true, "Minimum joint count of a pair");
+		options.addOption("minPmi", true, "Minimum pmi of a pair");
+		options.addOption("topK", true, "Number of partners with the highest pmi kept per typed dependency");
+		options.addOption("force", false, "Run all stages, even if their output is up to date");
+		options.addOption("legacyFreq", false, "Use a text frequency file of an earlier version without checking it");
 	}
 
 	public void run (String buffer, String error, String path, boolean nyt, boolean folder, boolean np, boolean shuffle, boolean sort,
-			String filename, boolean write, boolean fpi, String lambda, String beta, String size, boolean co, boolean so) throws IOException {
+			String filename, boolean write, boolean fpi, String lambda, String beta, String size, boolean co, boolean so, String threads, boolean binary, boolean stream, String mem, String sketch, boolean cu, boolean inc,
+			String minCount, String minJoint, String minPmi, String topK, boolean force, boolean legacyFreq) throws IOException {
 
 		////////////////////////////////////
 		// Chain Builder
 		////////////////////////////////////
 
+		int t = 1;
+		if (threads != null && !threads.equals("")) {
+			try {
+				t = Integer.parseInt(threads);
+			} catch (Exception e) {
+				System.err.println("An error occurred! Wrong format for threads.");
+			}
+		}
 		ChainBuilder cb = new ChainBuilder();
 		cb.setPath(buffer);
+		cb.setThreads(t);
+		cb.setBinary(binary);
 		if (!so) {
 			if (!np) {
-				cb.setErrorPath(error);
-				if (nyt)
-					cb.runNytFolder(path);
-				else if (folder)
-					cb.runFolder(path);
-				else
-					cb.run(path, "defaultId000");
+				// skip the corpus if the buffer file has been built from it
+				StageCache chains = new StageCache(new File(cb.getPath()));
+				long corpus = nyt || folder ? StageCache.hash(new File(path)) : CountMinSketch.hash(String.valueOf(path));
+				long key = StageCache.key(corpus, nyt, folder, binary);
+				if (!force && chains.isUpToDate(key)) {
+					System.err.println(cb.getPath() + " is up to date, skipping the ChainBuilder");
+				} else {
+					chains.invalidate();
+					cb.setErrorPath(error);
+					// the ChainBuilder appends, a rerun writes new files and replaces the old ones when it has finished
+					File bufferFile = new File(cb.getPath()), errorFile = new File(cb.getErrorPath());
+					File bufferTmp = new File(bufferFile.getPath() + ".tmp"), errorTmp = new File(errorFile.getPath() + ".tmp");
+					bufferTmp.delete();
+					errorTmp.delete();
+					cb.setPath(bufferTmp.getPath());
+					cb.setErrorPath(errorTmp.getPath());
+					boolean done = false;
+					try {
+						if (nyt)
+							cb.runNytFolder(path);
+						else if (folder)
+							cb.runFolder(path);
+						else
+							cb.run(path, "defaultId000");
+						cb.close();
+						// no documents at all
+						bufferTmp.createNewFile();
+						Files.move(bufferTmp.toPath(), bufferFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+						if (errorTmp.exists())
+							Files.move(errorTmp.toPath(), errorFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+						else
+							errorFile.delete();
+						done = true;
+					} finally {
+						cb.setPath(bufferFile.getPath());
+						cb.setErrorPath(errorFile.getPath());
+						if (!done) {
+							bufferTmp.delete();
+							errorTmp.delete();
+						}
+					}
+					chains.record(key);
+				}
 			}
 			if (co)
 				return;
@@ -73,8 +139,51 @@ public class Starter {
 		PairBuilder pb = new PairBuilder();
 		pb.setPath(cb.getPath());
 		pb.setPairPath(cb.getPath()+"_pairs");
+		pb.setThreads(t);
+		pb.setStreaming(stream);
+		pb.setIncremental(inc);
+		try {
+			long mc = minCount != null && !minCount.equals("") ? Long.parseLong(minCount) : 0;
+			long mj = minJoint != null && !minJoint.equals("") ? Long.parseLong(minJoint) : 0;
+			double mp = minPmi != null && !minPmi.equals("") ? Double.parseDouble(minPmi) : Double.NEGATIVE_INFINITY;
+			pb.setPruning(mc, mj, mp);
+		} catch (Exception e) {
+			System.err.println("An error occurred! Wrong format for minCount, minJoint or minPmi.");
+		}
+		if (topK != null && !topK.equals("")) {
+			try {
+				pb.setTopK(Integer.parseInt(topK));
+			} catch (Exception e) {
+				System.err.println("An error occurred! Wrong format for topK.");
+			}
+		}
+		if (mem != null && !mem.equals("")) {
+			try {
+				long m = Long.parseLong(mem);
+				pb.setMemory(m << 20);
+			} catch (Exception e) {
+				System.err.println("An error occurred! Wrong format for mem.");
+			}
+		}
+		if (sketch != null && !sketch.equals("")) {
+			try {
+				String[] wd = sketch.split(",");
+				pb.setSketch(Integer.parseInt(wd[0].trim()), Integer.parseInt(wd[1].trim()), cu);
+			} catch (Exception e) {
+				System.err.println("An error occurred! Wrong format for sketch.");
+			}
+		}
 		if (!so) {
-			pb.generatePairs();
+			// skip pairing if the pair buffer file has been built from the same buffer file and parameters
+			StageCache pairs = new StageCache(new File(pb.getPairPath()));
+			long key = StageCache.key(StageCache.hash(new File(cb.getPath())), sketch, cu, cu ? t : 1, minCount, minJoint, minPmi, topK);
+			if (!force && pairs.isUpToDate(key)) {
+				System.err.println(pb.getPairPath() + " is up to date, skipping the PairBuilder");
+			} else {
+				pairs.invalidate();
+				pb.generatePairs();
+				pairs.record(key);
+			}
 		}
 
 		////////////////////////////////////
@@ -82,8 +191,10 @@ public class Starter {
 		////////////////////////////////////
 
 		SchemaBuilder sb = new SchemaBuilder();
+		sb.setThreads(t);
 		if (fpi)
 			sb.setUseFullArgument(fpi);
+		sb.setUseLegacyFrequencies(legacyFreq);
 		if (lambda != null && !lambda.equals("")) {
 			try {
 				double lambd = Double.parseDouble(lambda);
@@ -143,10 +254,23 @@ public class Starter {
 		String size = cmd.getOptionValue("size");
 		boolean co = cmd.hasOption("co");
 		boolean so = cmd.hasOption("so");
+		String threads = cmd.getOptionValue("threads");
+		boolean binary = cmd.hasOption("binary");
+		boolean stream = cmd.hasOption("stream");
+		String mem = cmd.getOptionValue("mem");
+		String sketch = cmd.getOptionValue("sketch");
+		boolean cu = cmd.hasOption("cu");
+		boolean inc = cmd.hasOption("inc");
+		String minCount = cmd.getOptionValue("minCount");
+		String minJoint = cmd.getOptionValue("minJoint");
+		String minPmi = cmd.getOptionValue("minPmi");
+		String topK = cmd.getOptionValue("topK");
+		boolean force = cmd.hasOption("force");
+		boolean legacyFreq = cmd.hasOption("legacyFreq");
 		long start = System.currentTimeMillis();
 		long interrupt = 0L;
 		try {
-			new Starter().run(b, e, p, nyt, f, noparse, shuffle, sort, filename, write, fpi, lambda, beta, size, co, so);
+			new Starter().run(b, e, p, nyt, f, noparse, shuffle, sort, filename, write, fpi, lambda, beta, size, co, so, threads, binary, stream, mem, sketch, cu, inc, minCount, minJoint, minPmi, topK, force, legacyFreq);
 		} catch (Exception ex) {
 			ex.printStackTrace();
 			interrupt = System.currentTimeMillis();
@@ -0,0 +1,195 @@
+package util;
+
+/**
+ * Count-min sketch, used to estimate counts of long keys in fixed memory
+ * <p>
+ * The sketch has <em>depth</em> rows of <em>width</em> counters, every row hashes a key to one counter.
+ * The estimate of a key is the minimum of its counters and never lies below the true count.
+ * With &epsilon; = e / width and &delta; = e<sup>-depth</sup>, an estimate exceeds the true count by at most &epsilon;&middot;N with
+ * probability 1-&delta;, where N is the sum of all added counts.
+ * With conservative update, adding only raises the counters of a key as far as needed, which lowers the error further.
+ * <p>
+ * Sketches with the same dimensions are merged by adding their counters. Without conservative update,
+ * merged sketches are identical to a sketch of all counts. Estimating is thread-safe, adding is not
+ * @author David
+ *
+ */
+public class CountMinSketch {
+
+	/**
+	 * Counters, row by row
+	 */
+	private long[] counters;
+	/**
+	 * Number of counters per row, a power of two
+	 */
+	private int width;
+	/**
+	 * Number of rows
+	 */
+	private int depth;
+	/**
+	 * Sum of all added counts
+	 */
+	private long total;
+	/**
+	 * Flag to indicate conservative update
+	 */
+	private boolean conservative;
+
+	/**
+	 * Constructor
+	 * @param width number of counters per row, rounded up to a power of two
+	 * @param depth number of rows
+	 * @param conservative flag to indicate conservative update
+	 */
+	public CountMinSketch (int width, int depth, boolean conservative) {
+		if (width < 1 || depth < 1)
+			throw new IllegalArgumentException("Width and depth must be positive");
+		this.width = Integer.highestOneBit(width);
+		if (this.width < width)
+			this.width <<= 1;
+		this.depth = depth;
+		this.conservative = conservative;
+		counters = new long[this.width * depth];
+	}
+
+	/**
+	 * Adds a non-negative value to the count of a key
+	 * @param key key
+	 * @param delta value to add
+	 */
+	public void add (long key, long delta) {
+		total += delta;
+		if (!conservative) {
+			for (int r = 0; r < depth; r++)
+				counters[index(key, r)] += delta;
+			return;
+		}
+		// conservative update: raise every counter to at most the new estimate
+		long target = estimate(key) + delta;
+		for (int r = 0; r < depth; r++) {
+			int i = index(key, r);
+			if (counters[i] < target)
+				counters[i] = target;
+		}
+	}
+
+	/**
+	 * Returns the estimated count of a key
+	 * @param key key
+	 * @return estimate, never below the true count
+	 */
+	public long estimate (long key) {
+		long min = Long.MAX_VALUE;
+		for (int r = 0; r < depth; r++)
+			min = Math.min(min, counters[index(key, r)]);
+		return min;
+	}
+
+	/**
+	 * Adds the counters of a sketch with the same dimensions
+	 * @param other sketch
+	 */
+	public void merge (CountMinSketch other) {
+		if (other.width != width || other.depth != depth)
+			throw new IllegalArgumentException("Sketch dimensions differ");
+		for (int i = 0; i < counters.length; i++)
+			counters[i] += other.counters[i];
+		total += other.total;
+	}
+
+	/**
+	 * Returns the relative error &epsilon; of the sketch
+	 * @return &epsilon; = e / width
+	 */
+	public double getEpsilon () {
+		return Math.E / width;
+	}
+
+	/**
+	 * Returns the probability &delta; that an estimate exceeds the error bound
+	 * @return &delta; = e<sup>-depth</sup>
+	 */
+	public double getDelta () {
+		return Math.exp(-depth);
+	}
+
+	/**
+	 * Returns the absolute error bound &epsilon;&middot;N of the estimates
+	 * @return error bound
+	 */
+	public double getErrorBound () {
+		return getEpsilon() * total;
+	}
+
+	/**
+	 * Returns the sum of all added counts
+	 * @return N
+	 */
+	public long getTotal () {
+		return total;
+	}
+
+	/**
+	 * Returns the number of counters per row
+	 * @return width
+	 */
+	public int getWidth () {
+		return width;
+	}
+
+	/**
+	 * Returns the number of rows
+	 * @return depth
+	 */
+	public int getDepth () {
+		return depth;
+	}
+
+	/**
+	 * Returns the memory footprint of the counters in bytes
+	 * @return bytes
+	 */
+	public long footprint () {
+		return counters.length * 8L;
+	}
+
+	/**
+	 * Returns the counter of a key in a row
+	 * @param key key
+	 * @param r row
+	 * @return index of the counter
+	 */
+	private int index (long key, int r) {
+		return r * width + (int) (mix(key + (r + 1) * 0x9E3779B97F4A7C15L) & (width - 1));
+	}
+
+	/**
+	 * Hashes a string to a 64 bit key (FNV-1a over the characters)
+	 * @param s string
+	 * @return key
+	 */
+	public static long hash (String s) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001B3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Spreads the bits of a key (finalizer of MurmurHash3)
+	 * @param k key
+	 * @return hash
+	 */
+	private static long mix (long k) {
+		k ^= k >>> 33;
+		k *= 0xFF51AFD7ED558CCDL;
+		k ^= k >>> 33;
+		k *= 0xC4CEB93FE1A85A53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
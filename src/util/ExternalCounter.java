@@ -0,0 +1,427 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counter from primitive long keys to long counts with a bounded memory budget
+ * <p>
+ * Counts are accumulated in a {@link LongLongMap}. When the map reaches the budget, its entries
+ * are sorted by key and spilled to a temporary run file. {@link #finish()} k-way merges all runs
+ * into one sorted file of key/count pairs, which is memory-mapped and searched by key afterwards.
+ * As long as nothing has been spilled, counts simply stay in the map.
+ * <p>
+ * Counts can be added until {@link #finish()} is called, and read afterwards. Reading is thread-safe,
+ * adding is not
+ * @author David
+ *
+ */
+public class ExternalCounter implements Closeable {
+
+	/**
+	 * Bytes of heap per entry of the map, including the slack of the hash table and a rehash
+	 */
+	private final static int entryBytes = 96;
+	/**
+	 * Maximum number of entries of the map, independent of the budget
+	 */
+	private final static int maxEntries = 1 << 28;
+	/**
+	 * Maximum number of runs merged at once
+	 */
+	private final static int fanIn = 64;
+	/**
+	 * Buffer size of run files in bytes
+	 */
+	private final static int bufferSize = 1 << 16;
+	/**
+	 * Number of entries per mapped segment of the merged file (1 GB)
+	 */
+	private final static int segmentShift = 26;
+	/**
+	 * Counts in memory
+	 */
+	private LongLongMap map;
+	/**
+	 * Number of entries the map may hold before it is spilled
+	 */
+	private int limit;
+	/**
+	 * Directory of the temporary files, null for the default temporary directory
+	 */
+	private File dir;
+	/**
+	 * Sorted run files
+	 */
+	private List<File> runs;
+	/**
+	 * Number of spills
+	 */
+	private int spills;
+	/**
+	 * Merged file, its mapped segments and its number of entries
+	 */
+	private File merged;
+	private LongBuffer[] segments;
+	private long size;
+	/**
+	 * Flag to indicate that counting has finished
+	 */
+	private boolean finished;
+
+	/**
+	 * Constructor
+	 * @param budget memory budget in bytes
+	 * @param dir directory of the temporary files, null for the default temporary directory
+	 */
+	public ExternalCounter (long budget, File dir) {
+		this.dir = dir;
+		limit = (int) Math.max(1024, Math.min(maxEntries, budget / entryBytes));
+		map = new LongLongMap(1024);
+		runs = new ArrayList<File>();
+	}
+
+	/**
+	 * Adds a value to the count of a key
+	 * @param key key
+	 * @param delta value to add
+	 * @throws IOException if a run cannot be spilled
+	 */
+	public void add (long key, long delta) throws IOException {
+		if (finished)
+			throw new IllegalStateException("Counter finished");
+		map.add(key, delta);
+		if (map.size() >= limit)
+			spill();
+	}
+
+	/**
+	 * Ends counting
+	 * <p>
+	 * If runs have been spilled, the map is spilled as well and all runs are merged and mapped
+	 * @throws IOException
+	 */
+	public void finish () throws IOException {
+		if (finished)
+			return;
+		finished = true;
+		if (runs.isEmpty())
+			return;
+		if (map.size() > 0)
+			spill();
+		map = null;
+		// merge in passes of at most fanIn runs
+		while (runs.size() > 1) {
+			int n = Math.min(fanIn, runs.size());
+			File run = newRun();
+			// all runs stay listed until the merge has finished, so they are deleted by close() if it fails
+			runs.add(run);
+			merge(new ArrayList<File>(runs.subList(0, n)), run);
+			runs.subList(0, n).clear();
+		}
+		merged = runs.remove(0);
+		size = merged.length() / 16;
+		RandomAccessFile raf = new RandomAccessFile(merged, "r");
+		try {
+			FileChannel fc = raf.getChannel();
+			segments = new LongBuffer[(int) ((size + (1L << segmentShift) - 1) >>> segmentShift)];
+			for (int s = 0; s < segments.length; s++) {
+				long from = (long) s << segmentShift;
+				long to = Math.min(size, from + (1L << segmentShift));
+				segments[s] = fc.map(FileChannel.MapMode.READ_ONLY, from * 16, (to - from) * 16).asLongBuffer();
+			}
+		} finally {
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the count of a key
+	 * @param key key
+	 * @param def default value
+	 * @return count or <em>def</em> if the key has not been counted
+	 */
+	public long get (long key, long def) {
+		if (segments == null)
+			return map.get(key, def);
+		// binary search in the merged file
+		long lo = 0, hi = size - 1;
+		while (lo <= hi) {
+			long mid = (lo + hi) >>> 1;
+			long k = key(mid);
+			if (k < key)
+				lo = mid + 1;
+			else if (k > key)
+				hi = mid - 1;
+			else
+				return value(mid);
+		}
+		return def;
+	}
+
+	/**
+	 * Returns the number of counted keys
+	 * @return number of keys
+	 */
+	public long size () {
+		return segments == null ? map.size() : size;
+	}
+
+	/**
+	 * Returns the number of runs spilled to disk
+	 * @return number of spills
+	 */
+	public int getSpills () {
+		return spills;
+	}
+
+	/**
+	 * Returns a cursor over all keys and counts, in ascending order of the keys
+	 * <p>
+	 * Only available after {@link #finish()}
+	 * @return cursor
+	 */
+	public Cursor cursor () {
+		if (!finished)
+			throw new IllegalStateException("Counter not finished");
+		if (segments != null) {
+			return new Cursor() {
+				private long i = -1;
+				@Override
+				public boolean next () {
+					return ++i < size;
+				}
+				@Override
+				public long key () {
+					return ExternalCounter.this.key(i);
+				}
+				@Override
+				public long value () {
+					return ExternalCounter.this.value(i);
+				}
+			};
+		}
+		final long[] keys = map.keys();
+		Arrays.sort(keys);
+		return new Cursor() {
+			private int i = -1;
+			@Override
+			public boolean next () {
+				return ++i < keys.length;
+			}
+			@Override
+			public long key () {
+				return keys[i];
+			}
+			@Override
+			public long value () {
+				return map.get(keys[i], 0);
+			}
+		};
+	}
+
+	/**
+	 * Deletes the temporary files
+	 * <p>
+	 * Counts that have been spilled cannot be read afterwards
+	 */
+	@Override
+	public void close () {
+		for (File f : runs)
+			f.delete();
+		runs.clear();
+		if (merged != null)
+			merged.delete();
+		merged = null;
+		segments = null;
+		size = 0;
+	}
+
+	/**
+	 * Returns the key of an entry of the merged file
+	 * @param i index of the entry
+	 * @return key
+	 */
+	private long key (long i) {
+		return segments[(int) (i >>> segmentShift)].get((int) (i & ((1 << segmentShift) - 1)) * 2);
+	}
+
+	/**
+	 * Returns the count of an entry of the merged file
+	 * @param i index of the entry
+	 * @return count
+	 */
+	private long value (long i) {
+		return segments[(int) (i >>> segmentShift)].get((int) (i & ((1 << segmentShift) - 1)) * 2 + 1);
+	}
+
+	/**
+	 * Writes the entries of the map to a new run, sorted by key, and empties the map
+	 * @throws IOException
+	 */
+	private void spill () throws IOException {
+		long[] keys = map.keys();
+		Arrays.sort(keys);
+		File run = newRun();
+		// deleted by close() if the spill fails
+		runs.add(run);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), bufferSize));
+		try {
+			for (long k : keys) {
+				out.writeLong(k);
+				out.writeLong(map.get(k, 0));
+			}
+		} finally {
+			out.close();
+		}
+		spills++;
+		map = new LongLongMap(1024);
+	}
+
+	/**
+	 * Merges sorted runs into a new run, adding the counts of equal keys
+	 * <p>
+	 * The merged runs are deleted
+	 * @param group runs
+	 * @param run merged run
+	 * @throws IOException
+	 */
+	private void merge (List<File> group, File run) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(group.size(), new Comparator<RunReader>() {
+			@Override
+			public int compare (RunReader r1, RunReader r2) {
+				return Long.compare(r1.key, r2.key);
+			}
+		});
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), bufferSize));
+		try {
+			for (File f : group) {
+				RunReader r = new RunReader(f);
+				if (r.next())
+					queue.add(r);
+				else
+					r.close();
+			}
+			while (!queue.isEmpty()) {
+				RunReader r = queue.poll();
+				long key = r.key;
+				long value = 0;
+				// add the counts of the key in all runs
+				while (r != null && r.key == key) {
+					value += r.value;
+					if (r.next())
+						queue.add(r);
+					else
+						r.close();
+					r = queue.peek() != null && queue.peek().key == key ? queue.poll() : null;
+				}
+				out.writeLong(key);
+				out.writeLong(value);
+			}
+		} finally {
+			for (RunReader r : queue)
+				r.close();
+			out.close();
+		}
+		for (File f : group)
+			f.delete();
+	}
+
+	/**
+	 * Creates a new temporary run file
+	 * @return run file
+	 * @throws IOException
+	 */
+	private File newRun () throws IOException {
+		return File.createTempFile("counts", ".run", dir);
+	}
+
+	/**
+	 * Cursor over keys and counts
+	 * @author David
+	 *
+	 */
+	public interface Cursor {
+
+		/**
+		 * Moves to the next entry
+		 * @return false if there are no more entries
+		 */
+		boolean next ();
+
+		/**
+		 * Returns the key of the current entry
+		 * @return key
+		 */
+		long key ();
+
+		/**
+		 * Returns the count of the current entry
+		 * @return count
+		 */
+		long value ();
+	}
+
+	/**
+	 * Sequential reader of a run file
+	 * @author David
+	 *
+	 */
+	private static class RunReader implements Closeable {
+
+		/**
+		 * Input
+		 */
+		private DataInputStream in;
+		/**
+		 * Current key and count
+		 */
+		private long key, value;
+
+		/**
+		 * Constructor
+		 * @param f run file
+		 * @throws IOException
+		 */
+		RunReader (File f) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), bufferSize));
+		}
+
+		/**
+		 * Reads the next entry
+		 * @return false at the end of the run
+		 * @throws IOException
+		 */
+		boolean next () throws IOException {
+			try {
+				key = in.readLong();
+			} catch (EOFException e) {
+				return false;
+			}
+			value = in.readLong();
+			return true;
+		}
+
+		@Override
+		public void close () throws IOException {
+			in.close();
+		}
+	}
+}
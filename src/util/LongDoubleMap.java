@@ -0,0 +1,177 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long keys to primitive double values
+ * <p>
+ * Avoids boxing on every access. A LongDoubleMap is not thread-safe
+ * @author David
+ *
+ */
+public class LongDoubleMap {
+
+	/**
+	 * Marker for empty slots
+	 */
+	private final static long empty = Long.MIN_VALUE;
+	/**
+	 * Keys
+	 */
+	private long[] keys;
+	/**
+	 * Values
+	 */
+	private double[] values;
+	/**
+	 * Number of entries
+	 */
+	private int size;
+	/**
+	 * Whether the key <em>Long.MIN_VALUE</em> is present and its value
+	 */
+	private boolean hasEmptyKey;
+	private double emptyValue;
+
+	/**
+	 * No-argument constructor
+	 */
+	public LongDoubleMap () {
+		this(16);
+	}
+
+	/**
+	 * Constructor with expected number of entries
+	 * @param capacity expected number of entries
+	 */
+	public LongDoubleMap (int capacity) {
+		int n = 16;
+		while (n < capacity * 2)
+			n <<= 1;
+		keys = new long[n];
+		Arrays.fill(keys, empty);
+		values = new double[n];
+	}
+
+	/**
+	 * Associates a value with a key
+	 * @param key key
+	 * @param value value
+	 */
+	public void put (long key, double value) {
+		if (key == empty) {
+			if (!hasEmptyKey)
+				size++;
+			hasEmptyKey = true;
+			emptyValue = value;
+			return;
+		}
+		int i = slot(key);
+		if (keys[i] == empty) {
+			keys[i] = key;
+			if (++size * 2 > keys.length) {
+				values[i] = value;
+				rehash();
+				return;
+			}
+		}
+		values[i] = value;
+	}
+
+	/**
+	 * Returns the value of a key
+	 * @param key key
+	 * @param def default value
+	 * @return value or <em>def</em> if the key is not present
+	 */
+	public double get (long key, double def) {
+		if (key == empty)
+			return hasEmptyKey ? emptyValue : def;
+		int i = slot(key);
+		return keys[i] == empty ? def : values[i];
+	}
+
+	/**
+	 * Returns whether a key is present
+	 * @param key key
+	 * @return true if the key is present
+	 */
+	public boolean containsKey (long key) {
+		if (key == empty)
+			return hasEmptyKey;
+		return keys[slot(key)] != empty;
+	}
+
+	/**
+	 * Returns the number of entries
+	 * @return number of entries
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Returns all keys
+	 * @return keys
+	 */
+	public long[] keys () {
+		long[] k = new long[size];
+		int j = 0;
+		if (hasEmptyKey)
+			k[j++] = empty;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != empty)
+				k[j++] = keys[i];
+		}
+		return k;
+	}
+
+	/**
+	 * Returns the approximate memory footprint of this map in bytes
+	 * @return bytes
+	 */
+	public long footprint () {
+		return keys.length * 16L;
+	}
+
+	/**
+	 * Finds the slot of a key, or the free slot where it belongs
+	 * @param key key
+	 * @return slot
+	 */
+	private int slot (long key) {
+		int mask = keys.length - 1;
+		int i = mix(key) & mask;
+		while (keys[i] != empty && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Doubles the number of slots
+	 */
+	private void rehash () {
+		long[] oldKeys = keys;
+		double[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		Arrays.fill(keys, empty);
+		values = new double[keys.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != empty) {
+				int j = slot(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Spreads the bits of a key
+	 * @param key key
+	 * @return hash code
+	 */
+	static int mix (long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+}
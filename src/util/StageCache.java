@@ -0,0 +1,280 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class used to skip a stage whose output is up to date
+ * <p>
+ * After a stage has written its output file, a manifest next to it (<em>output.manifest</em>) records
+ * the key of the stage, a hash of all its inputs and parameters, and a hash of the contents of the output.
+ * The stage can be skipped as long as the key is the same and the output has not been changed since.
+ * Inputs are hashed by content, so touching or copying files does not invalidate a stage, and changed files
+ * always do. Hashes of files are remembered for the rest of the run while their length and modification time stay the same.
+ * Hashes of large files that are read by every run can also be remembered across runs, in a file next to them (<em>file.hash</em>).
+ * Remembered hashes are checked by length, modification time and the first and last bytes of the file only, see {@link #storedHash(File)}
+ * @author David
+ *
+ */
+public class StageCache {
+
+	/**
+	 * Magic number <em>NCSM</em>
+	 */
+	private final static int MAGIC = 0x4E43534D;
+	/**
+	 * Format version
+	 */
+	private final static int VERSION = 1;
+	/**
+	 * Magic number of remembered hashes <em>NCSH</em>
+	 */
+	private final static int HASH_MAGIC = 0x4E435348;
+	/**
+	 * Number of bytes at the start and at the end of a file that are checked before a remembered hash is used
+	 */
+	private final static int sampleSize = 1 << 16;
+	/**
+	 * Remembered hashes by path, with the length and modification time of the hashed files
+	 */
+	private final static Map<String, long[]> hashes = new HashMap<String, long[]>();
+	/**
+	 * Output file
+	 */
+	private File output;
+	/**
+	 * Manifest file
+	 */
+	private File manifest;
+
+	/**
+	 * Constructor
+	 * @param output output file of the stage
+	 */
+	public StageCache (File output) {
+		this.output = output;
+		manifest = new File(output.getPath() + ".manifest");
+	}
+
+	/**
+	 * Returns whether the output was written by a stage with the same key and has not been changed since
+	 * @param key key of the stage
+	 * @return true if the stage can be skipped
+	 * @throws IOException
+	 */
+	public boolean isUpToDate (long key) throws IOException {
+		if (!manifest.exists() || !output.exists())
+			return false;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)));
+		try {
+			if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+				return false;
+			return in.readLong() == key && in.readLong() == output.length() && in.readLong() == hash(output);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Records that the output has been written by a stage
+	 * @param key key of the stage
+	 * @throws IOException
+	 */
+	public void record (long key) throws IOException {
+		// the output has just been written, a remembered hash may be stale
+		synchronized (hashes) {
+			hashes.remove(output.getAbsolutePath());
+		}
+		File tmp = new File(manifest.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(key);
+			out.writeLong(output.length());
+			out.writeLong(hash(output));
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Removes the manifest, the output is not up to date for any key afterwards
+	 */
+	public void invalidate () {
+		manifest.delete();
+	}
+
+	/**
+	 * Returns the key of a stage
+	 * @param input hash of the inputs
+	 * @param parameters parameters that change the output
+	 * @return key
+	 */
+	public static long key (long input, Object... parameters) {
+		long h = input;
+		for (Object p : parameters)
+			h = combine(h, CountMinSketch.hash(String.valueOf(p)));
+		return h;
+	}
+
+	/**
+	 * Returns the hash of the contents of a file
+	 * <p>
+	 * Folders are hashed by the names and contents of their files, in order of the names
+	 * @param f file or folder
+	 * @return hash, 0 if the file does not exist
+	 * @throws IOException
+	 */
+	public static long hash (File f) throws IOException {
+		if (f.isDirectory()) {
+			File[] files = f.listFiles();
+			Arrays.sort(files);
+			long h = 0;
+			for (File file : files)
+				h = combine(combine(h, CountMinSketch.hash(file.getName())), hash(file));
+			return h;
+		}
+		if (!f.exists())
+			return 0;
+		String path = f.getAbsolutePath();
+		synchronized (hashes) {
+			long[] known = hashes.get(path);
+			if (known != null && known[0] == f.length() && known[1] == f.lastModified())
+				return known[2];
+		}
+		long length = f.length(), modified = f.lastModified();
+		long h = hash(f, length);
+		synchronized (hashes) {
+			hashes.put(path, new long[] {length, modified, h});
+		}
+		return h;
+	}
+
+	/**
+	 * Returns the hash of the contents of a file, remembered across runs
+	 * <p>
+	 * The hash is stored in <em>file.hash</em> with the length and modification time of the file and a hash of
+	 * its first and last 64 KB, and reused while all of them stay the same. This is a heuristic: a file that keeps
+	 * its length, modification time, start and end while bytes in between are changed, keeps its remembered hash.
+	 * Files replaced by other files (also copies that keep the modification time) differ at least at the start or
+	 * end in practice, and appended files differ in length. Checking costs reading 128 KB instead of the whole file.
+	 * If the hash cannot be stored, it is only remembered for the rest of the run
+	 * @param f file
+	 * @return hash, 0 if the file does not exist
+	 * @throws IOException
+	 */
+	public static long storedHash (File f) throws IOException {
+		if (!f.isFile())
+			return hash(f);
+		File stored = new File(f.getPath() + ".hash");
+		long length = f.length(), modified = f.lastModified();
+		long sample = sample(f);
+		if (stored.length() == 36) {
+			DataInputStream in = new DataInputStream(new FileInputStream(stored));
+			try {
+				if (in.readInt() == HASH_MAGIC && in.readLong() == length && in.readLong() == modified && in.readLong() == sample)
+					return in.readLong();
+			} finally {
+				in.close();
+			}
+		}
+		long h = hash(f);
+		File tmp = new File(stored.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+			try {
+				out.writeInt(HASH_MAGIC);
+				out.writeLong(length);
+				out.writeLong(modified);
+				out.writeLong(sample);
+				out.writeLong(h);
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), stored.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			// the hash is still correct, it is calculated again by the next run
+			tmp.delete();
+		}
+		return h;
+	}
+
+	/**
+	 * Returns the hash of the first and last bytes of a file
+	 * @param f file
+	 * @return hash
+	 * @throws IOException
+	 */
+	private static long sample (File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			long length = raf.length();
+			long h = length;
+			byte[] buf = new byte[(int) Math.min(sampleSize, length)];
+			raf.readFully(buf);
+			for (byte b : buf)
+				h = (h ^ (b & 0xFF)) * 0x100000001B3L;
+			raf.seek(length - buf.length);
+			raf.readFully(buf);
+			for (byte b : buf)
+				h = (h ^ (b & 0xFF)) * 0x100000001B3L;
+			return h;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the hash of the first bytes of a file
+	 * <p>
+	 * The hash of the whole file is the hash of its length in bytes. Prefix hashes are not remembered
+	 * @param f file
+	 * @param length number of bytes to hash
+	 * @return hash
+	 * @throws IOException if the file is shorter
+	 */
+	public static long hash (File f, long length) throws IOException {
+		long h = length, left = length;
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] buf = new byte[1 << 16];
+			int n;
+			while (left > 0 && (n = in.read(buf, 0, (int) Math.min(buf.length, left))) > 0) {
+				for (int i = 0; i < n; i++)
+					h = (h ^ (buf[i] & 0xFF)) * 0x100000001B3L;
+				left -= n;
+			}
+		} finally {
+			in.close();
+		}
+		if (left > 0)
+			throw new IOException(f.getName() + " is shorter than " + length + " bytes");
+		return h;
+	}
+
+	/**
+	 * Combines two hashes
+	 * @param h hash
+	 * @param v hash to add
+	 * @return combined hash
+	 */
+	private static long combine (long h, long v) {
+		h = (h ^ v) * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 31);
+	}
+}
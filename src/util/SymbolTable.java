@@ -0,0 +1,264 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Class used to intern symbols into dense int ids
+ * <p>
+ * Every distinct symbol is stored once as a String and receives the next free id,
+ * starting at 0. Symbols can be interned from Strings or directly from encoded bytes,
+ * in which case no String is created for symbols that are already known. Like FileReader
+ * and FileWriter, bytes use the platform default charset.
+ * A SymbolTable is not thread-safe
+ * @author David
+ *
+ */
+public class SymbolTable {
+
+	/**
+	 * Open addressing table of ids plus one, 0 marks an empty slot
+	 */
+	private int[] slots;
+	/**
+	 * Symbols by id
+	 */
+	private String[] symbols;
+	/**
+	 * Hash codes by id
+	 */
+	private int[] hashes;
+	/**
+	 * Number of symbols
+	 */
+	private int size;
+	/**
+	 * Decoder for non-ASCII byte sequences
+	 */
+	private CharsetDecoder decoder;
+	/**
+	 * Buffer for decoded characters
+	 */
+	private CharBuffer chars;
+
+	/**
+	 * No-argument constructor
+	 */
+	public SymbolTable () {
+		this(1024);
+	}
+
+	/**
+	 * Constructor with expected number of symbols
+	 * @param capacity expected number of symbols
+	 */
+	public SymbolTable (int capacity) {
+		int n = 16;
+		while (n < capacity * 2)
+			n <<= 1;
+		slots = new int[n];
+		symbols = new String[Math.max(16, capacity)];
+		hashes = new int[symbols.length];
+	}
+
+	/**
+	 * Interns a symbol
+	 * @param s symbol
+	 * @return id of the symbol
+	 */
+	public int intern (String s) {
+		int h = s.hashCode();
+		int mask = slots.length - 1;
+		int i = mix(h) & mask;
+		int id;
+		while ((id = slots[i]) != 0) {
+			if (hashes[id-1] == h && symbols[id-1].equals(s))
+				return id-1;
+			i = (i + 1) & mask;
+		}
+		return add(s, h, i);
+	}
+
+	/**
+	 * Interns a symbol given as encoded bytes
+	 * <p>
+	 * Uses absolute positions, the position of the buffer is not changed
+	 * @param buf buffer
+	 * @param off offset of the first byte
+	 * @param len number of bytes
+	 * @return id of the symbol
+	 */
+	public int intern (ByteBuffer buf, int off, int len) {
+		// hash ASCII bytes like String.hashCode
+		int h = 0;
+		for (int k = 0; k < len; k++) {
+			byte b = buf.get(off + k);
+			if (b < 0)
+				return internDecoded(buf, off, len);
+			h = 31 * h + b;
+		}
+		int mask = slots.length - 1;
+		int i = mix(h) & mask;
+		int id;
+		while ((id = slots[i]) != 0) {
+			if (hashes[id-1] == h && equals(symbols[id-1], buf, off, len))
+				return id-1;
+			i = (i + 1) & mask;
+		}
+		byte[] b = new byte[len];
+		for (int k = 0; k < len; k++)
+			b[k] = buf.get(off + k);
+		return add(new String(b, StandardCharsets.US_ASCII), h, i);
+	}
+
+	/**
+	 * Returns the id of a symbol
+	 * @param s symbol
+	 * @return id or -1 if the symbol is unknown
+	 */
+	public int lookup (String s) {
+		int h = s.hashCode();
+		int mask = slots.length - 1;
+		int i = mix(h) & mask;
+		int id;
+		while ((id = slots[i]) != 0) {
+			if (hashes[id-1] == h && symbols[id-1].equals(s))
+				return id-1;
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the symbol with the given id
+	 * @param id id
+	 * @return symbol
+	 */
+	public String get (int id) {
+		return symbols[id];
+	}
+
+	/**
+	 * Returns the number of symbols
+	 * @return number of symbols
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Removes all symbols
+	 * <p>
+	 * The capacity is kept, so a table can be reused without allocating. Only the slots in use are cleared,
+	 * so a table that once grew large stays cheap to clear
+	 */
+	public void clear () {
+		if (size * 4 > slots.length) {
+			Arrays.fill(slots, 0);
+		} else {
+			int mask = slots.length - 1;
+			for (int id = 0; id < size; id++) {
+				// the slot of every symbol is still reachable, all of them are cleared
+				int i = mix(hashes[id]) & mask;
+				while (slots[i] != id+1)
+					i = (i + 1) & mask;
+				slots[i] = 0;
+			}
+		}
+		Arrays.fill(symbols, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * Interns a non-ASCII symbol by decoding it first
+	 * @param buf buffer
+	 * @param off offset of the first byte
+	 * @param len number of bytes
+	 * @return id of the symbol
+	 */
+	private int internDecoded (ByteBuffer buf, int off, int len) {
+		if (decoder == null) {
+			decoder = Charset.defaultCharset().newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		if (chars == null || chars.capacity() < len)
+			chars = CharBuffer.allocate(Math.max(64, len));
+		ByteBuffer in = buf.duplicate();
+		in.limit(off + len).position(off);
+		chars.clear();
+		decoder.reset();
+		decoder.decode(in, chars, true);
+		decoder.flush(chars);
+		chars.flip();
+		return intern(chars.toString());
+	}
+
+	/**
+	 * Adds a new symbol at a free slot
+	 * @param s symbol
+	 * @param h hash code
+	 * @param slot free slot
+	 * @return id of the symbol
+	 */
+	private int add (String s, int h, int slot) {
+		if (size == symbols.length) {
+			symbols = Arrays.copyOf(symbols, size * 2);
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+		symbols[size] = s;
+		hashes[size] = h;
+		slots[slot] = ++size;
+		// keep load factor below one half
+		if (size * 2 > slots.length)
+			rehash();
+		return size-1;
+	}
+
+	/**
+	 * Doubles the number of slots
+	 */
+	private void rehash () {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int i = mix(hashes[id]) & mask;
+			while (slots[i] != 0)
+				i = (i + 1) & mask;
+			slots[i] = id+1;
+		}
+	}
+
+	/**
+	 * Compares a String with ASCII bytes
+	 * @param s String
+	 * @param buf buffer
+	 * @param off offset of the first byte
+	 * @param len number of bytes
+	 * @return whether both represent the same symbol
+	 */
+	private static boolean equals (String s, ByteBuffer buf, int off, int len) {
+		if (s.length() != len)
+			return false;
+		for (int k = 0; k < len; k++) {
+			if (s.charAt(k) != buf.get(off + k))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Spreads the bits of a hash code
+	 * @param h hash code
+	 * @return mixed hash code
+	 */
+	static int mix (int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
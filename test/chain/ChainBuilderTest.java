@@ -0,0 +1,103 @@
+package chain;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Test of {@link ChainBuilder}
+ * <p>
+ * Runs without a test framework: <em>java -cp bin:test-bin chain.ChainBuilderTest</em> exits with an
+ * AssertionError if a check fails. Needs the Stanford CoreNLP models on the class path
+ * @author David
+ *
+ */
+public class ChainBuilderTest {
+
+	/**
+	 * Texts of the test corpus
+	 */
+	private final static String[] texts = {
+		"The company bought a factory. The company sold the factory a year later. It made a loss.",
+		"John ate an apple. He liked it, so he bought another apple. Mary ate it.",
+		"The police arrested a man. He was charged with theft. The police released him on bail.",
+		"The senator proposed a law. The senate passed the law. The president signed it.",
+		"A dog chased the cat. The cat escaped. The dog barked at it.",
+		"The team won the game. Fans celebrated the win. The coach praised the team.",
+		"The bank lent money to the firm. The firm repaid the money. The bank thanked the firm.",
+		"Anna wrote a book. The publisher printed the book. Readers bought it.",
+	};
+
+	/**
+	 * Documents annotated by several threads yield the same buffer file as documents annotated by one thread
+	 * @throws IOException
+	 */
+	static void testThreadsYieldSameBuffer () throws IOException {
+		File corpus = Files.createTempDirectory("corpus").toFile();
+		corpus.deleteOnExit();
+		for (int i = 0; i < texts.length; i++) {
+			File f = new File(corpus, "text" + i + ".txt");
+			f.deleteOnExit();
+			Writer w = new FileWriter(f);
+			try {
+				w.write(texts[i]);
+			} finally {
+				w.close();
+			}
+		}
+		byte[] single = buffer(corpus, 1);
+		byte[] parallel = buffer(corpus, 4);
+		check(single.length > 0, "expected records");
+		check(Arrays.equals(single, parallel), "buffer files of 1 and 4 threads differ");
+	}
+
+	/**
+	 * Builds the buffer file of a folder
+	 * @param corpus folder of text files
+	 * @param threads number of threads
+	 * @return contents of the buffer file
+	 * @throws IOException
+	 */
+	private static byte[] buffer (File corpus, int threads) throws IOException {
+		File buffer = File.createTempFile("buffer", ".txt");
+		File error = new File(buffer.getPath() + "_error");
+		// records are appended, start from an empty file
+		buffer.delete();
+		ChainBuilder cb = new ChainBuilder();
+		cb.setPath(buffer.getPath());
+		cb.setErrorPath(error.getPath());
+		cb.setThreads(threads);
+		try {
+			cb.runFolder(corpus.getPath());
+			cb.close();
+			check(!error.exists(), "documents were skipped");
+			return Files.readAllBytes(buffer.toPath());
+		} finally {
+			buffer.delete();
+			error.delete();
+		}
+	}
+
+	/**
+	 * Fails if a condition does not hold
+	 * @param condition condition
+	 * @param message failure message
+	 */
+	private static void check (boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	/**
+	 * Runs all tests
+	 * @param args not used
+	 * @throws IOException
+	 */
+	public static void main (String[] args) throws IOException {
+		testThreadsYieldSameBuffer();
+		System.out.println("ChainBuilderTest passed");
+	}
+}
@@ -0,0 +1,85 @@
+package chain;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Test of {@link PairBuilder}
+ * <p>
+ * Runs without a test framework: <em>java -cp bin:test-bin chain.PairBuilderTest</em> exits with an
+ * AssertionError if a check fails
+ * @author David
+ *
+ */
+public class PairBuilderTest {
+
+	/**
+	 * Sketches read with several threads yield the same pairs as sketches read with one thread,
+	 * also if every part of the buffer file has more than 1024 typed dependencies
+	 * @throws IOException
+	 */
+	static void testSketchWithThreads () throws IOException {
+		File buffer = File.createTempFile("buffer", ".txt");
+		buffer.deleteOnExit();
+		Writer w = new FileWriter(buffer);
+		try {
+			// two new typed dependencies per document
+			for (int i = 0; i < 4000; i++)
+				w.write("DOC" + i + ";give" + i + "-s( company ) [ DOC" + i + "null0 ]:sell" + i + "-o( company ) [ DOC" + i
+						+ "null0 ]:buy-o( company ) [ DOC" + i + "null0 ]:&!&\n");
+		} finally {
+			w.close();
+		}
+		byte[] single = pairs(buffer, 1);
+		byte[] parallel = pairs(buffer, 4);
+		check(single.length > 0, "expected pairs");
+		check(Arrays.equals(single, parallel), "pairs of 1 and 4 threads differ");
+	}
+
+	/**
+	 * Builds the pair buffer file of a chain buffer file with sketches
+	 * @param buffer chain buffer file
+	 * @param threads number of threads
+	 * @return contents of the pair buffer file
+	 * @throws IOException
+	 */
+	private static byte[] pairs (File buffer, int threads) throws IOException {
+		File pairs = new File(buffer.getPath() + "_pairs");
+		pairs.delete();
+		PairBuilder pb = new PairBuilder();
+		pb.setPath(buffer.getPath());
+		pb.setPairPath(pairs.getPath());
+		pb.setThreads(threads);
+		pb.setSketch(1 << 16, 4, false);
+		pb.generatePairs();
+		try {
+			return Files.readAllBytes(pairs.toPath());
+		} finally {
+			pairs.delete();
+		}
+	}
+
+	/**
+	 * Fails if a condition does not hold
+	 * @param condition condition
+	 * @param message failure message
+	 */
+	private static void check (boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	/**
+	 * Runs all tests
+	 * @param args not used
+	 * @throws IOException
+	 */
+	public static void main (String[] args) throws IOException {
+		testSketchWithThreads();
+		System.out.println("PairBuilderTest passed");
+	}
+}
@@ -0,0 +1,63 @@
+package io;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Test of {@link NytDocumentReader}
+ * <p>
+ * Runs without a test framework: <em>java -cp bin:test-bin io.NytDocumentReaderTest</em> exits with an
+ * AssertionError if a check fails
+ * @author David
+ *
+ */
+public class NytDocumentReaderTest {
+
+	/**
+	 * A document without a TEXT block is skipped, and its id is not paired with the text of the next document
+	 * @throws IOException
+	 */
+	static void testDocumentWithoutText () throws IOException {
+		File f = File.createTempFile("nyt", ".txt");
+		f.deleteOnExit();
+		Writer w = new FileWriter(f);
+		try {
+			w.write("<DOC id=\"NYT_1\" type=\"story\" >\n<HEADLINE>\nNo text\n</HEADLINE>\n</DOC>\n");
+			w.write("<DOC id=\"NYT_2\" type=\"story\" >\n<TEXT>\n<P>\nThe company sold the car.\n</P>\n</TEXT>\n</DOC>\n");
+		} finally {
+			w.close();
+		}
+		NytDocumentReader r = new NytDocumentReader(f);
+		try {
+			NytDocument d = r.next();
+			check(d != null, "expected a document");
+			check(d.getId().equals("NYT_2"), "expected NYT_2, got " + d.getId());
+			check(d.getText().contains("The company sold the car."), "unexpected text: " + d.getText());
+			check(r.next() == null, "expected the end of the file");
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * Fails if a condition does not hold
+	 * @param condition condition
+	 * @param message failure message
+	 */
+	private static void check (boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	/**
+	 * Runs all tests
+	 * @param args not used
+	 * @throws IOException
+	 */
+	public static void main (String[] args) throws IOException {
+		testDocumentWithoutText();
+		System.out.println("NytDocumentReaderTest passed");
+	}
+}